@@ -0,0 +1,109 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Base.inputForDay;
+import static java.lang.System.out;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link BatchRunner} by number of workers: each operation is one run of the program, and an invocation
+ * is a whole batch on a pool of {@code workers} threads. The {@code main} method prints runs per second and the
+ * speedup over one worker, per workload:
+ * {@code mvn -P benchmark compile exec:exec -Dbenchmark.main=adventofcode.y2019.BatchBenchmark}.
+ * <p>
+ * Speedups only mean something up to the number of cores of the machine, which the report prints first.
+ */
+@Fork(1)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+public class BatchBenchmark {
+  private static final int RUNS = 4_096;
+
+  @Param({"1", "2", "4", "8"})
+  public int workers;
+  @Param({"day-2-sweep", "day-5-run"})
+  public String workload;
+
+  private long[] addresses;
+  private long[][] inputs;
+  private ForkJoinPool pool;
+  private BatchRunner runner;
+
+  public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+    var options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .include(BatchBenchmark.class.getSimpleName())
+      .build();
+    var runsPerSecond = new LinkedHashMap<String, Double>();
+    var single = new LinkedHashMap<String, Double>();
+    for (var result : new Runner(options).run()) {
+      var throughput = result.getPrimaryResult().getScore();
+      var workload = result.getParams().getParam("workload");
+      runsPerSecond.put(workload + "/" + result.getParams().getParam("workers"), throughput);
+      if ("1".equals(result.getParams().getParam("workers"))) {
+        single.put(workload, throughput);
+      }
+    }
+
+    out.printf("%n%d cores%n%-20s %16s %10s%n", Runtime.getRuntime().availableProcessors(), "workload/workers",
+               "runs/s", "speedup");
+    runsPerSecond.forEach((key, throughput) -> {
+      var one = single.get(key.substring(0, key.indexOf('/')));
+      var speedup = one == null ? "-" : String.format("%.2fx", throughput / one);
+      out.printf("%-20s %,16.0f %10s%n", key, throughput, speedup);
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RUNS)
+  public Object run() {
+    return "day-2-sweep".equals(workload) ? runner.sweep(addresses, inputs, 0) : runner.run(inputs);
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    pool = new ForkJoinPool(workers);
+    inputs = new long[RUNS][];
+    switch (workload) {
+      case "day-2-sweep" -> {
+        runner = BatchRunner.parse(inputForDay(2).get(0), pool);
+        addresses = new long[] {1, 2};
+        for (var i = 0; i < RUNS; i++) {
+          inputs[i] = new long[] {i / 64, i % 64};
+        }
+      }
+      case "day-5-run" -> {
+        runner = BatchRunner.parse(inputForDay(5).get(0), pool);
+        for (var i = 0; i < RUNS; i++) {
+          inputs[i] = new long[] {i % 2 == 0 ? 1L : 5L};
+        }
+      }
+      default -> throw new IllegalArgumentException("Unknown workload " + workload);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,125 @@
+package adventofcode.y2019;
+
+import static java.lang.System.out;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs {@link ComputerBenchmark} with the GC profiler and prints, per workload and mode, instructions per second and
+ * bytes allocated per instruction, next to the baseline and the change from it. {@code --update-baseline} writes the
+ * results as the new baseline; any other argument is passed to JMH, e.g. {@code -p workload=day-9}.
+ * <p>
+ * The baseline is a tab-separated file, {@code src/jmh/baseline.tsv} unless {@code -Dbenchmark.baseline} says
+ * otherwise. Numbers only compare between runs on the same machine.
+ */
+final class BenchmarkReport {
+  private static final String ALLOCATION = "gc.alloc.rate.norm";
+  private static final String INSTRUCTIONS = "instructions";
+  private static final String UPDATE = "--update-baseline";
+
+  private BenchmarkReport() {
+  }
+
+  public static void main(final String[] args) throws CommandLineOptionException, IOException, RunnerException {
+    var update = Arrays.asList(args).contains(UPDATE);
+    var jmhArgs = Arrays.stream(args).filter(arg -> !UPDATE.equals(arg)).toArray(String[]::new);
+    var options = new OptionsBuilder()
+      .parent(new CommandLineOptions(jmhArgs))
+      .include(ComputerBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+    var baselineFile = Path.of(System.getProperty("benchmark.baseline", "src/jmh/baseline.tsv"));
+    var baseline = Files.isRegularFile(baselineFile) ? read(baselineFile) : Map.<String, Sample>of();
+
+    var results = new LinkedHashMap<String, Sample>();
+    for (var result : new Runner(options).run()) {
+      results.put(key(result), sample(result));
+    }
+
+    out.printf("%n%-28s %16s %12s %16s %12s%n", "workload/mode", "instructions/s", "change", "bytes/instr",
+               "change");
+    results.forEach((key, sample) -> {
+      var before = baseline.get(key);
+      out.printf("%-28s %,16.0f %12s %16.3f %12s%n", key, sample.instructionsPerSecond,
+                 before == null ? "-" : change(sample.instructionsPerSecond, before.instructionsPerSecond),
+                 sample.bytesPerInstruction,
+                 before == null ? "-" : change(sample.bytesPerInstruction, before.bytesPerInstruction));
+    });
+    if (update) {
+      var merged = new LinkedHashMap<>(baseline);
+      merged.putAll(results);
+      write(baselineFile, merged);
+      out.printf("%nBaseline written to %s%n", baselineFile);
+    }
+  }
+
+  private static String change(final double after, final double before) {
+    return before == 0.0 ? "-" : String.format("%+.1f%%", 100.0 * (after - before) / before);
+  }
+
+  private static String key(final RunResult result) {
+    var params = result.getParams();
+    return params.getParam("workload") + "/" + params.getParam("mode");
+  }
+
+  private static Map<String, Sample> read(final Path file) throws IOException {
+    var samples = new LinkedHashMap<String, Sample>();
+    for (var line : Files.readAllLines(file)) {
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      }
+      var fields = line.split("\t");
+      samples.put(fields[0], new Sample(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+    }
+    return samples;
+  }
+
+  /**
+   * Instructions per second come from {@link ComputerBenchmark.Counters}. The GC profiler reports bytes per operation,
+   * so the bytes per instruction are those over the instructions per operation.
+   */
+  private static Sample sample(final RunResult result) {
+    var secondary = result.getSecondaryResults();
+    var instructionsPerSecond = secondary.get(INSTRUCTIONS).getScore();
+    var bytesPerOperation = secondary.entrySet().stream()
+      .filter(entry -> entry.getKey().endsWith(ALLOCATION))
+      .mapToDouble(entry -> entry.getValue().getScore())
+      .findFirst()
+      .orElse(Double.NaN);
+    var instructionsPerOperation = instructionsPerSecond / result.getPrimaryResult().getScore();
+    return new Sample(instructionsPerSecond, bytesPerOperation / instructionsPerOperation);
+  }
+
+  private static void write(final Path file, final Map<String, Sample> samples) throws IOException {
+    var lines = new ArrayList<String>();
+    lines.add("# workload/mode\tinstructions/s\tbytes/instruction");
+    samples.forEach((key, sample) -> lines.add(
+      String.format(Locale.ROOT, "%s\t%.0f\t%.4f", key, sample.instructionsPerSecond, sample.bytesPerInstruction)));
+    Files.write(file, lines);
+  }
+
+  private static final class Sample {
+    private final double bytesPerInstruction;
+    private final double instructionsPerSecond;
+
+    Sample(final double instructionsPerSecond, final double bytesPerInstruction) {
+      this.instructionsPerSecond = instructionsPerSecond;
+      this.bytesPerInstruction = bytesPerInstruction;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Base.inputForDay;
+
+import adventofcode.y2019.Computer.ExecutionMode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link Computer} on the bundled inputs and on synthetic workloads, in every {@link ExecutionMode}. Every
+ * operation is a complete run from a freshly loaded image, and {@link Counters} adds the number of instructions it
+ * executed, so JMH reports instructions per second next to runs per second. {@link BenchmarkReport} derives the bytes
+ * allocated per instruction from the GC profiler, and compares both against a baseline.
+ */
+@Fork(1)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ComputerBenchmark {
+  /**
+   * Counts down from its input, multiplying and adding into an accumulator: nothing but arithmetic and jumps.
+   */
+  static final String ARITHMETIC = "3,100,1002,101,3,101,1001,101,7,101,1001,100,-1,100,1007,100,1,102,1006,102,2,"
+                                   + "4,101,99";
+  /**
+   * Reads and adds one to values until it runs out of input: two of them hand a value back and forth.
+   */
+  static final String PING = "3,100,1001,100,1,100,4,100,1105,1,0";
+  /**
+   * Writes 0 to n - 1 into n cells through the relative base, walks back and sums them.
+   */
+  static final String RELATIVE_MEMORY = "3,100,1002,100,-1,103,109,1000,21001,105,0,0,109,1,1001,105,1,105,"
+                                        + "8,105,100,106,1006,106,8,9,103,201,0,104,104,109,1,1001,105,-1,105,"
+                                        + "1005,105,27,4,104,99";
+
+  private static final long ARITHMETIC_ROUNDS = 100_000L;
+  private static final long MEMORY_CELLS = 100_000L;
+  private static final int PING_PONG_ROUNDS = 10_000;
+
+  @Param({"INTERPRETED", "TIERED", "EAGER"})
+  public String mode;
+  @Param({"day-5", "day-7", "day-9", "arithmetic", "relative-memory", "ping-pong"})
+  public String workload;
+
+  private ExecutionMode executionMode;
+  private long[] image;
+  private Workload task;
+
+  /**
+   * Instructions executed during an iteration, reported per second.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long instructions;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      instructions = 0L;
+    }
+  }
+
+  @Benchmark
+  public long run(final Counters counters) {
+    var instructions = task.run();
+    counters.instructions += instructions;
+    return instructions;
+  }
+
+  @Setup
+  public void setUp() {
+    executionMode = ExecutionMode.valueOf(mode);
+    switch (workload) {
+      case "day-5" -> {
+        image = ImageParser.parse(inputForDay(5).get(0));
+        task = () -> single(5L);
+      }
+      case "day-7" -> {
+        image = ImageParser.parse(inputForDay(7).get(0));
+        task = this::amplifiers;
+      }
+      case "day-9" -> {
+        image = ImageParser.parse(inputForDay(9).get(0));
+        task = () -> single(2L);
+      }
+      case "arithmetic" -> {
+        image = ImageParser.parse(ARITHMETIC);
+        task = () -> single(ARITHMETIC_ROUNDS);
+      }
+      case "relative-memory" -> {
+        image = ImageParser.parse(RELATIVE_MEMORY);
+        task = () -> single(MEMORY_CELLS);
+      }
+      case "ping-pong" -> {
+        image = ImageParser.parse(PING);
+        task = this::pingPong;
+      }
+      default -> throw new IllegalArgumentException("Unknown workload " + workload);
+    }
+  }
+
+  /**
+   * One pass of the Day07 amplifier chain, phases 0 to 4.
+   */
+  private long amplifiers() {
+    var instructions = 0L;
+    var signal = 0L;
+    for (var phase = 0L; phase < 5; phase++) {
+      var computer = Computer.of(image).withMode(executionMode);
+      signal = computer.execute(phase, signal).get(0);
+      instructions += computer.getInstructionCount();
+    }
+    return instructions;
+  }
+
+  private long pingPong() {
+    var toPing = new LongRingBuffer();
+    var toPong = new LongRingBuffer();
+    var ping = Computer.of(image).withMode(executionMode).withInput(toPing).withOutput(toPong);
+    var pong = Computer.of(image).withMode(executionMode).withInput(toPong).withOutput(toPing);
+    toPing.accept(0L);
+    for (var i = 0; i < PING_PONG_ROUNDS; i++) {
+      ping.run();
+      pong.run();
+    }
+    return ping.getInstructionCount() + pong.getInstructionCount();
+  }
+
+  private long single(final Long input) {
+    var computer = Computer.of(image).withMode(executionMode);
+    computer.execute(input);
+    return computer.getInstructionCount();
+  }
+
+  private interface Workload {
+    /**
+     * @return the number of instructions executed.
+     */
+    long run();
+  }
+}
@@ -7,8 +7,10 @@ import static java.lang.System.lineSeparator;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Splitter;
+import com.google.common.io.Resources;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Function;
@@ -17,6 +19,12 @@ import java.util.stream.Stream;
 public abstract class Base {
 
   private static final Splitter CSV_SPLITTER = Splitter.on(",").omitEmptyStrings().trimResults();
+  /**
+   * System property naming the directory of the binary image cache. Without it, programs are parsed from their text
+   * every time and nothing is written.
+   */
+  static final String IMAGE_CACHE = "intcode.image.cache";
+  private static ImageCache images;
   private final List<String> inputLines;
 
   Base(final List<String> inputLines) {
@@ -31,6 +39,31 @@ public abstract class Base {
     }
   }
 
+  /**
+   * @return the day's Intcode program, from the binary image cache once it has been converted if
+   * {@value #IMAGE_CACHE} is set.
+   */
+  static long[] imageForDay(final Integer day) {
+    var source = getResource(Base.class, String.format("day-%s-input.txt", day));
+    try {
+      var cache = imageCache();
+      return cache == null ? ImageParser.parse(Resources.toString(source, UTF_8)) : cache.load(source);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read the input", e);
+    }
+  }
+
+  private static synchronized ImageCache imageCache() {
+    var directory = System.getProperty(IMAGE_CACHE);
+    if (directory == null) {
+      return null;
+    }
+    if (images == null) {
+      images = new ImageCache(Path.of(directory));
+    }
+    return images;
+  }
+
   static List<String> parseCsv(final String input) {
     return CSV_SPLITTER.splitToList(input);
   }
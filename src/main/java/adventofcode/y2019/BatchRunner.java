@@ -0,0 +1,160 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one program, parsed once, over many input vectors on a work-stealing pool. Each worker forks its own computer
+ * once and {@link Computer#reset() resets} it between runs: a run only restores the pages the previous one wrote, and
+ * the worker's decoded instructions and compiled blocks stay warm across runs.
+ */
+final class BatchRunner {
+  private static final int SPLIT_THRESHOLD = 4;
+
+  private final ForkJoinPool pool;
+  private final Computer template;
+  private final ThreadLocal<Worker> workers;
+
+  private BatchRunner(final Computer template, final ForkJoinPool pool) {
+    this.template = template;
+    this.pool = pool;
+    workers = ThreadLocal.withInitial(this::newWorker);
+  }
+
+  static BatchRunner parse(final String program) {
+    return parse(program, ForkJoinPool.commonPool());
+  }
+
+  static BatchRunner parse(final String program, final ForkJoinPool pool) {
+    return new BatchRunner(Computer.parse(program), pool);
+  }
+
+  /**
+   * @return the outputs of each run, in the order of the input vectors.
+   */
+  long[][] run(final long[][] inputs) {
+    var results = new long[inputs.length][];
+    pool.invoke(new Slice(0, inputs.length, index -> results[index] = workers.get().run(inputs[index])));
+    return results;
+  }
+
+  /**
+   * Day02-style sweep: for each vector, writes its values at the given addresses, runs the program without input and
+   * reads back the result cell.
+   */
+  long[] sweep(final long[] addresses, final long[][] values, final long resultAddress) {
+    var results = new long[values.length];
+    pool.invoke(new Slice(0, values.length, index -> {
+      checkArgument(values[index].length == addresses.length, "vector %s has the wrong size", index);
+      results[index] = workers.get().sweep(addresses, values[index], resultAddress);
+    }));
+    return results;
+  }
+
+  private Worker newWorker() {
+    synchronized (template) {
+      return new Worker(template.fork());
+    }
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void run_matchesSequentialRuns() {
+      var runner = BatchRunner.parse(
+        "3,21,1008,21,8,20,1005,20,22,107,8,21,20,1006,20,31,1106,0,36,98,0,0,1002,21,125,20,4,20,1105,1,46,104,999,1105,1,46,1101,1000,1,20,4,20,1105,1,46,98,99");
+      var inputs = new long[100][];
+      for (var i = 0; i < inputs.length; i++) {
+        inputs[i] = new long[] {i % 10 + 3};
+      }
+
+      var actual = runner.run(inputs);
+
+      for (var i = 0; i < inputs.length; i++) {
+        var expected = inputs[i][0] < 8 ? 999L : inputs[i][0] == 8 ? 1000L : 1001L;
+        assertThat(actual[i]).containsExactly(expected);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void sweep_patchesMemory() {
+      var runner = BatchRunner.parse("1,0,0,0,99");
+      var actual = runner.sweep(new long[] {1, 2}, new long[][] {{0, 0}, {4, 4}, {0, 4}}, 0);
+      assertThat(actual).containsExactly(2L, 198L, 100L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_startsEachVectorFromTheInitialState() {
+      // writes its second input over its own first instruction before printing it
+      var runner = BatchRunner.parse("3,11,3,0,4,0,1105,1,9,99,0,0", new ForkJoinPool(1));
+      var actual = runner.run(new long[][] {{1}, {1, 4}, {1, 5}, {}});
+      assertThat(actual).containsExactly(new long[0], new long[] {4L}, new long[] {5L}, new long[0]);
+    }
+  }
+
+  private interface Task {
+    void run(int index);
+  }
+
+  private static final class Slice extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final Task task;
+    private final int to;
+
+    Slice(final int from, final int to, final Task task) {
+      this.from = from;
+      this.to = to;
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SPLIT_THRESHOLD) {
+        for (var i = from; i < to; i++) {
+          task.run(i);
+        }
+        return;
+      }
+      var middle = (from + to) >>> 1;
+      invokeAll(new Slice(from, middle, task), new Slice(middle, to, task));
+    }
+  }
+
+  private static final class Worker {
+    private final Computer computer;
+    private final LongRingBuffer inputs = new LongRingBuffer();
+    private final LongRingBuffer outputs = new LongRingBuffer();
+
+    Worker(final Computer computer) {
+      this.computer = computer.withInput(inputs).withOutput(outputs);
+    }
+
+    long[] run(final long[] vector) {
+      reset();
+      for (var value : vector) {
+        inputs.accept(value);
+      }
+      computer.run();
+      return outputs.toArray();
+    }
+
+    long sweep(final long[] addresses, final long[] vector, final long resultAddress) {
+      reset();
+      for (var i = 0; i < addresses.length; i++) {
+        computer.poke(addresses[i], vector[i]);
+      }
+      computer.run();
+      return computer.peek(resultAddress);
+    }
+
+    private void reset() {
+      computer.reset();
+      inputs.clear();
+      outputs.clear();
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.Status;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Per-run limits for {@link Computer#run(Budget)}: retired instructions, wall-clock time and memory cells. Instruction
+ * and time limits, and interruption, are checked between slices of {@link #SLICE} instructions, so the interpreter loop
+ * itself is unchanged. The memory limit is enforced by {@link Memory} when it allocates a page.
+ */
+@ToString
+final class Budget {
+  enum Limit {
+    CANCELLED,
+    INSTRUCTIONS,
+    MEMORY,
+    WALL_CLOCK
+  }
+
+  static final long SLICE = 1 << 16;
+  private static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+  @Getter
+  private final long instructions;
+  @Getter
+  private final long memoryCells;
+  private final long nanos;
+
+  private Budget(final long instructions, final long nanos, final long memoryCells) {
+    this.instructions = instructions;
+    this.nanos = nanos;
+    this.memoryCells = memoryCells;
+  }
+
+  static Budget unlimited() {
+    return UNLIMITED;
+  }
+
+  Duration getWallClock() {
+    return Duration.ofNanos(nanos);
+  }
+
+  Budget withInstructions(final long instructions) {
+    checkArgument(instructions >= 0, "instructions should be positive");
+    return new Budget(instructions, nanos, memoryCells);
+  }
+
+  /**
+   * Counts every backed cell of the computer's memory, including its program. Memory is allocated by pages of
+   * {@link Memory#PAGE_SIZE} cells, which is the granularity of this limit.
+   */
+  Budget withMemoryCells(final long memoryCells) {
+    checkArgument(memoryCells >= 0, "memoryCells should be positive");
+    return new Budget(instructions, nanos, memoryCells);
+  }
+
+  Budget withWallClock(final Duration wallClock) {
+    checkArgument(!wallClock.isNegative(), "wallClock should be positive");
+    return new Budget(instructions, wallClock.toNanos(), memoryCells);
+  }
+
+  /**
+   * How a budgeted run ended: either with the {@link Status} of a normal run, or with the limit it exceeded. A run
+   * stopped by instructions, time or cancellation can be resumed; one stopped by memory was interrupted mid-instruction
+   * and should not be.
+   */
+  @Getter
+  @ToString
+  static final class Outcome {
+    private final Limit exceeded;
+    private final Duration elapsed;
+    private final long instructions;
+    private final long memoryCells;
+    private final Status status;
+
+    Outcome(final Status status, final Limit exceeded, final long instructions, final Duration elapsed,
+            final long memoryCells) {
+      this.status = status;
+      this.exceeded = exceeded;
+      this.instructions = instructions;
+      this.elapsed = elapsed;
+      this.memoryCells = memoryCells;
+    }
+
+    boolean isExceeded() {
+      return exceeded != null;
+    }
+  }
+
+  static class Test {
+    private static final String FOREVER = "1105,1,0";
+
+    @org.junit.jupiter.api.Test
+    void run_withinBudget_finishes() {
+      var computer = Computer.parse("1101,2,3,5,4,5,99");
+
+      var outcome = computer.run(Budget.unlimited().withInstructions(10));
+
+      assertThat(outcome.isExceeded()).isFalse();
+      assertThat(outcome.getStatus()).isEqualTo(Status.HALTED);
+      assertThat(outcome.getInstructions()).isEqualTo(3);
+      assertThat(computer.getOutputs()).containsExactly(5L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_infiniteLoop_exceedsInstructions() {
+      var computer = Computer.parse(FOREVER).withMode(Computer.ExecutionMode.INTERPRETED);
+
+      var outcome = computer.run(Budget.unlimited().withInstructions(200_000));
+
+      assertThat(outcome.getExceeded()).isEqualTo(Limit.INSTRUCTIONS);
+      assertThat(outcome.getStatus()).isNull();
+      assertThat(outcome.getInstructions()).isEqualTo(200_000);
+      assertThat(computer.run(Budget.unlimited().withInstructions(5)).getInstructions()).isEqualTo(5);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_infiniteLoop_exceedsWallClock() {
+      var outcome = Computer.parse(FOREVER).run(Budget.unlimited().withWallClock(Duration.ofMillis(50)));
+
+      assertThat(outcome.getExceeded()).isEqualTo(Limit.WALL_CLOCK);
+      assertThat(outcome.getElapsed()).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_growingMemory_exceedsCells() {
+      // moves the relative base a page up and writes there, forever
+      var computer = Computer.parse("109,1024,21101,1,1,0,1105,1,0");
+
+      var outcome = computer.run(Budget.unlimited().withMemoryCells(100 * Memory.PAGE_SIZE));
+
+      assertThat(outcome.getExceeded()).isEqualTo(Limit.MEMORY);
+      assertThat(outcome.getMemoryCells()).isEqualTo(100 * Memory.PAGE_SIZE);
+      assertThat(computer.peek(99 * 1024)).isEqualTo(2L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_interrupted_isCancelled() {
+      Thread.currentThread().interrupt();
+      try {
+        var outcome = Computer.parse(FOREVER).run(Budget.unlimited());
+
+        assertThat(outcome.getExceeded()).isEqualTo(Limit.CANCELLED);
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+      } finally {
+        Thread.interrupted();
+      }
+    }
+  }
+}
@@ -0,0 +1,449 @@
+package adventofcode.y2019;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.ExecutionMode;
+import adventofcode.y2019.Computer.Status;
+import com.google.common.hash.HashCode;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Persistent checkpoints of a computer, written incrementally to a directory:
+ * <ul>
+ * <li>{@code image-<digest>}: the program, named by its SHA-256 and written with the first checkpoint of it. Saving a
+ * computer running another program writes its image next to the old one, which goes once the new meta is in place;</li>
+ * <li>{@code pages-<generation>}: an append-only log of memory pages, written through a memory-mapped window. Each
+ * checkpoint appends only the pages written since the previous one;</li>
+ * <li>{@code meta}: the execution mode by name, the digest of the image, registers, pending I/O, cells too wide for a
+ * long and, for each page, where its latest copy sits in the log. It is replaced atomically once the pages are forced
+ * to disk, so a crash at any point leaves the previous checkpoint intact.</li>
+ * </ul>
+ * When the log holds more stale copies than live ones, the next checkpoint starts a new generation with only the live
+ * pages. Only the default I/O buffers are saved; custom ports belong to the caller.
+ */
+final class CheckpointStore implements Closeable {
+  private static final int MAGIC = 0x49434350;
+  private static final int DIGEST_BYTES = 32;
+  private static final int VERSION = 3;
+  private static final int WINDOW_PAGES = 64;
+  private static final long WINDOW_BYTES = (long) WINDOW_PAGES * Memory.PAGE_SIZE * Long.BYTES;
+  private static final int MIN_COMPACTION_SLOTS = 4 * WINDOW_PAGES;
+
+  private final Path directory;
+  private int generation;
+  private long[] image;
+  private HashCode imageDigest;
+  private Memory lastMemory;
+  @Getter
+  private int lastPagesWritten;
+  private int nextSlot;
+  private FileChannel pages;
+  private int[] slots = new int[0];
+  private MappedByteBuffer window;
+  private LongBuffer windowCells;
+  private int windowIndex = -1;
+
+  private CheckpointStore(final Path directory) {
+    this.directory = directory;
+  }
+
+  static CheckpointStore open(final Path directory) throws IOException {
+    Files.createDirectories(directory);
+    var result = new CheckpointStore(directory);
+    if (Files.exists(result.meta())) {
+      try (var in = result.readMeta()) {
+        result.generation = in.readInt();
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (pages != null) {
+      pages.close();
+      pages = null;
+      window = null;
+      windowCells = null;
+      windowIndex = -1;
+    }
+  }
+
+  boolean exists() {
+    return Files.exists(meta());
+  }
+
+  /**
+   * @return a computer in the state of the last checkpoint. Later checkpoints of it stay incremental.
+   */
+  Computer load() throws IOException {
+    close();
+    try (var in = readMeta()) {
+      generation = in.readInt();
+      var mode = ExecutionMode.valueOf(in.readUTF());
+      var digest = new byte[DIGEST_BYTES];
+      in.readFully(digest);
+      imageDigest = HashCode.fromBytes(digest);
+      try (var imageIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(imageFile(imageDigest))))) {
+        image = readLongs(imageIn);
+      }
+      var programCounter = in.readLong();
+      var base = in.readLong();
+      var instructionCount = in.readLong();
+      var size = in.readInt();
+      slots = new int[in.readInt()];
+      for (var page = 0; page < slots.length; page++) {
+        slots[page] = in.readInt();
+      }
+      nextSlot = in.readInt();
+      var overflowCells = readLongs(in);
+      var inputs = readLongs(in);
+      var outputs = readLongs(in);
+      var wideCells = new HashMap<Long, BigInteger>();
+      for (var count = in.readInt(); count > 0; count--) {
+        var address = in.readLong();
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        wideCells.put(address, new BigInteger(bytes));
+      }
+
+      openPages();
+      var cells = new long[slots.length][];
+      for (var page = 0; page < slots.length; page++) {
+        if (slots[page] >= 0) {
+          cells[page] = new long[Memory.PAGE_SIZE];
+          moveWindow(slots[page]).get(cells[page]);
+        }
+      }
+      var memory = Memory.fromPages(cells, size, overflowCells);
+      var result = Computer.of(image).withMode(mode);
+      result.load(memory, wideCells, inputs, outputs);
+      result.moveTo(programCounter, base, instructionCount);
+      lastMemory = memory;
+      image = result.image();
+      return result;
+    }
+  }
+
+  /**
+   * Runs the computer, checkpointing it about every {@code interval} instructions and once more when it stops.
+   */
+  Status run(final Computer computer, final long interval) throws IOException {
+    while (true) {
+      var status = computer.run(interval);
+      save(computer);
+      if (status != Status.YIELDED) {
+        return status;
+      }
+    }
+  }
+
+  void save(final Computer computer) throws IOException {
+    var previousImage = imageDigest;
+    if (computer.image() != image) {
+      var cells = computer.image();
+      var digest = ResultCache.digest(cells);
+      if (!digest.equals(imageDigest)) {
+        replace(imageFile(digest), out -> writeLongs(out, cells));
+      }
+      image = cells;
+      imageDigest = digest;
+    }
+    var memory = computer.memory();
+    var dirty = memory.drainDirtyPages();
+    var live = (int) Arrays.stream(slots).filter(slot -> slot >= 0).count();
+    var full = memory != lastMemory || nextSlot >= MIN_COMPACTION_SLOTS && nextSlot > 2 * live;
+    var previousGeneration = generation;
+    if (full) {
+      close();
+      generation++;
+      slots = new int[0];
+      nextSlot = 0;
+      dirty = new int[memory.pageCount()];
+      Arrays.setAll(dirty, page -> page);
+    }
+    if (pages == null) {
+      openPages();
+    }
+    if (slots.length < memory.pageCount()) {
+      var grown = Arrays.copyOf(slots, memory.pageCount());
+      Arrays.fill(grown, slots.length, grown.length, -1);
+      slots = grown;
+    }
+    lastPagesWritten = 0;
+    for (var page : dirty) {
+      var cells = memory.page(page);
+      if (cells != null) {
+        moveWindow(nextSlot).put(cells);
+        slots[page] = nextSlot++;
+        lastPagesWritten++;
+      }
+    }
+    if (window != null) {
+      window.force();
+    }
+    replace(meta(), out -> {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(generation);
+      out.writeUTF(computer.getMode().name());
+      out.write(imageDigest.asBytes());
+      out.writeLong(computer.getProgramCounter());
+      out.writeLong(computer.getBase());
+      out.writeLong(computer.getInstructionCount());
+      out.writeInt(memory.size());
+      out.writeInt(slots.length);
+      for (var slot : slots) {
+        out.writeInt(slot);
+      }
+      out.writeInt(nextSlot);
+      writeLongs(out, memory.overflowCells());
+      writeLongs(out, computer.pendingInputs());
+      writeLongs(out, computer.pendingOutputs());
+      out.writeInt(computer.wideCells().size());
+      for (var cell : computer.wideCells().entrySet()) {
+        var bytes = cell.getValue().toByteArray();
+        out.writeLong(cell.getKey());
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    });
+    if (full) {
+      Files.deleteIfExists(pagesFile(previousGeneration));
+    }
+    if (previousImage != null && !previousImage.equals(imageDigest)) {
+      Files.deleteIfExists(imageFile(previousImage));
+    }
+    lastMemory = memory;
+  }
+
+  private static long[] readLongs(final DataInputStream in) throws IOException {
+    var result = new long[in.readInt()];
+    for (var i = 0; i < result.length; i++) {
+      result[i] = in.readLong();
+    }
+    return result;
+  }
+
+  private static void writeLongs(final DataOutputStream out, final long[] values) throws IOException {
+    out.writeInt(values.length);
+    for (var value : values) {
+      out.writeLong(value);
+    }
+  }
+
+  private Path imageFile(final HashCode digest) {
+    return directory.resolve("image-" + digest);
+  }
+
+  private Path meta() {
+    return directory.resolve("meta");
+  }
+
+  /**
+   * @return the window cells, positioned on the given slot.
+   */
+  private LongBuffer moveWindow(final int slot) throws IOException {
+    var index = slot / WINDOW_PAGES;
+    if (index != windowIndex) {
+      if (window != null) {
+        window.force();
+      }
+      window = pages.map(FileChannel.MapMode.READ_WRITE, index * WINDOW_BYTES, WINDOW_BYTES);
+      windowCells = window.asLongBuffer();
+      windowIndex = index;
+    }
+    windowCells.position(slot % WINDOW_PAGES * Memory.PAGE_SIZE);
+    return windowCells;
+  }
+
+  private void openPages() throws IOException {
+    pages = FileChannel.open(pagesFile(generation),
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.READ,
+                             StandardOpenOption.WRITE);
+  }
+
+  private Path pagesFile(final int generation) {
+    return directory.resolve(format("pages-%d", generation));
+  }
+
+  private DataInputStream readMeta() throws IOException {
+    var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta())));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      in.close();
+      throw new IllegalStateException(format("%s is not a checkpoint, or an unsupported version", directory));
+    }
+    return in;
+  }
+
+  /**
+   * Writes the file under a temporary name, forces it to disk and renames it over the previous one, then forces the
+   * directory so the rename itself survives a crash.
+   */
+  private void replace(final Path file, final Writer writer) throws IOException {
+    var temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try (var channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      writer.write(out);
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    forceDirectory();
+  }
+
+  /**
+   * Not every platform can open a directory as a channel: there, the rename is only as durable as the file system
+   * makes it.
+   */
+  private void forceDirectory() {
+    try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (final IOException e) {
+      // best effort
+    }
+  }
+
+  static class Test {
+    private static final String QUINE = "109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99";
+
+    @org.junit.jupiter.api.Test
+    void load_resumesWhereTheCheckpointLeftOff() throws IOException {
+      var directory = Files.createTempDirectory("checkpoint");
+      try {
+        var computer = Computer.parse(QUINE);
+        try (var store = CheckpointStore.open(directory)) {
+          computer.run(50);
+          store.save(computer);
+        }
+
+        try (var store = CheckpointStore.open(directory)) {
+          var resumed = store.load();
+          assertThat(resumed.getInstructionCount()).isEqualTo(computer.getInstructionCount());
+          assertThat(store.run(resumed, 7)).isEqualTo(Status.HALTED);
+          assertThat(resumed.getOutputs()).isEqualTo(Computer.parse(QUINE).execute());
+        }
+      } finally {
+        delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void load_restoresWideCells() throws IOException {
+      var directory = Files.createTempDirectory("checkpoint");
+      try (var store = CheckpointStore.open(directory)) {
+        // 2^64 in cell 20, checkpointed before it is printed
+        var program = "1102,9223372036854775807,2,20,1001,20,2,20,4,20,99";
+        var computer = Computer.parse(program).withExactArithmetic(value -> { });
+        assertThat(computer.run(2)).isEqualTo(Status.YIELDED);
+        store.save(computer);
+
+        var outputs = new ArrayList<BigInteger>();
+        var resumed = store.load().withExactArithmetic(outputs::add);
+        assertThat(resumed.run()).isEqualTo(Status.HALTED);
+        assertThat(outputs).containsExactly(BigInteger.TWO.pow(64));
+      } finally {
+        delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void save_anotherProgram_replacesTheImage() throws IOException {
+      var directory = Files.createTempDirectory("checkpoint");
+      try (var store = CheckpointStore.open(directory)) {
+        var first = Computer.parse(QUINE);
+        first.run(10);
+        store.save(first);
+        var second = Computer.parse("1101,20,22,7,4,7,99,0").withMode(ExecutionMode.EAGER);
+        second.run(1);
+        store.save(second);
+
+        var resumed = store.load();
+        assertThat(resumed.getMode()).isEqualTo(ExecutionMode.EAGER);
+        assertThat(resumed.execute()).containsExactly(42L);
+        try (var files = Files.list(directory)) {
+          assertThat(files.filter(file -> file.getFileName().toString().startsWith("image-"))).hasSize(1);
+        }
+      } finally {
+        delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void save_writesOnlyDirtyPages() throws IOException {
+      var directory = Files.createTempDirectory("checkpoint");
+      try (var store = CheckpointStore.open(directory)) {
+        // touches pages 0 and 4, then only page 4 on each later slice
+        var computer = Computer.parse("3,5000,1,5000,5001,5001,4,5001,1105,1,0");
+        computer.execute(1L);
+        store.save(computer);
+        assertThat(store.getLastPagesWritten()).isEqualTo(2);
+
+        computer.execute(2L);
+        store.save(computer);
+        assertThat(store.getLastPagesWritten()).isEqualTo(1);
+
+        store.save(computer);
+        assertThat(store.getLastPagesWritten()).isZero();
+
+        var resumed = store.load();
+        assertThat(resumed.execute(3L)).containsExactly(6L);
+      } finally {
+        delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_compactsTheLog() throws IOException {
+      var directory = Files.createTempDirectory("checkpoint");
+      try (var store = CheckpointStore.open(directory)) {
+        var computer = Computer.parse("1101,0,0,5000,1001,5000,1,5000,1007,5000,200,5001,1005,5001,4,4,5000,99");
+        assertThat(store.run(computer, 1)).isEqualTo(Status.HALTED);
+        assertThat(computer.getOutputs()).containsExactly(200L);
+
+        var resumed = store.load();
+        assertThat(resumed.isRunning()).isFalse();
+        assertThat(resumed.peek(5000)).isEqualTo(200L);
+        try (var files = Files.list(directory)) {
+          assertThat(files.filter(file -> file.getFileName().toString().startsWith("pages-"))).hasSize(1);
+        }
+      } finally {
+        delete(directory);
+      }
+    }
+
+    private static void delete(final Path directory) throws IOException {
+      try (var files = Files.walk(directory)) {
+        for (var file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+}
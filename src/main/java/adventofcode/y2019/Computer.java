@@ -1,68 +1,285 @@
 package adventofcode.y2019;
 
-import static adventofcode.y2019.Base.splitAndMap;
-import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
+import static adventofcode.y2019.Computer.ParamMode.RELATIVE;
+import static adventofcode.y2019.Instruction.ADD;
+import static adventofcode.y2019.Instruction.ADJUST_BASE;
+import static adventofcode.y2019.Instruction.EQUALS;
+import static adventofcode.y2019.Instruction.HALT;
+import static adventofcode.y2019.Instruction.INPUT;
+import static adventofcode.y2019.Instruction.JUMP_IF_FALSE;
+import static adventofcode.y2019.Instruction.JUMP_IF_TRUE;
+import static adventofcode.y2019.Instruction.LESS_THAN;
+import static adventofcode.y2019.Instruction.MULTIPLY;
+import static adventofcode.y2019.Instruction.OUTPUT;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static java.lang.StrictMath.pow;
 import static java.lang.String.format;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.max;
-import static org.assertj.core.util.Lists.newArrayList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import lombok.Getter;
 import lombok.ToString;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.LongStream;
 
 @ToString
 class Computer {
+  /**
+   * How a computer runs its program. {@link #INTERPRETED} is the default: compiling blocks loads a class each, and
+   * defining the first ones costs more than a one-shot run of a puzzle gains. {@link #TIERED} pays off for long-running
+   * programs, and for computers reset and run again on one image.
+   */
+  enum ExecutionMode {
+    INTERPRETED(Integer.MAX_VALUE),
+    TIERED(1_000),
+    EAGER(0);
+
+    private final int compileThreshold;
+
+    ExecutionMode(final int compileThreshold) {
+      this.compileThreshold = compileThreshold;
+    }
+  }
+
   enum ParamMode {
     POSITION,
     IMMEDIATE,
     RELATIVE;
 
+    private static final int[] DIVISORS = {1, 10, 100, 1000};
     private static final ParamMode[] MODES = {POSITION, IMMEDIATE, RELATIVE};
 
     public static ParamMode mode(final int codes, final int index) {
-      checkArgument(index > 0, "should be positive");
-      var paramCode = (codes / (int) pow(10, index - 1)) % 10;
-      checkState(0 <= paramCode && paramCode <= MODES.length, "paramCode should be 0, 1 or 2");
+      checkArgument(0 < index && index <= DIVISORS.length, "should be between 1 and %s", DIVISORS.length);
+      var paramCode = (codes / DIVISORS[index - 1]) % 10;
+      checkState(0 <= paramCode && paramCode < MODES.length, "paramCode should be 0, 1 or 2");
       return MODES[paramCode];
     }
   }
 
-  private static final long PROGRAM_COUNTER_END = -1L;
+  /**
+   * A frozen computer state, which can be restored any number of times.
+   */
+  static final class Snapshot {
+    private final Computer state;
+
+    private Snapshot(final Computer state) {
+      this.state = state;
+    }
+  }
+
+  enum Status {
+    AWAITING_INPUT,
+    HALTED,
+    YIELDED
+  }
+
+  static class Test {
+    private static final String ACCUMULATOR = "3,100,1,100,101,101,4,101,1105,1,0";
+
+    @org.junit.jupiter.api.Test
+    void fork_isIndependentFromParent() {
+      var parent = Computer.parse(ACCUMULATOR);
+      assertThat(parent.execute(5L)).containsExactly(5L);
+
+      var child = parent.fork();
+      assertThat(parent.execute(1L)).containsExactly(6L);
+      assertThat(child.execute(10L)).containsExactly(15L);
+      assertThat(parent.execute(1L)).containsExactly(7L);
+      assertThat(child.execute(1L)).containsExactly(16L);
+
+      assertThat(parent.getRunningMemory().get(101)).isEqualTo(7L);
+      assertThat(child.getRunningMemory().get(101)).isEqualTo(16L);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void fusedJump_isUndoneWhenOverwritten(final ExecutionMode mode) {
+      // counts to 3 with a fused compare and jump, then retargets the jump to the final output
+      var computer = Computer.parse("1001,100,1,100,1008,100,3,101,1006,101,0,4,100,1101,0,20,10,1105,1,0,104,-1,99")
+        .withMode(mode);
+
+      assertThat(computer.run(1_000)).isEqualTo(Status.HALTED);
+      assertThat(computer.getOutputs()).containsExactly(3L, -1L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void exactArithmetic_promotesOverflowingCells() {
+      // 2^63 in cell 20, 2^126 in 21 (printed), 2^64 in 22, then jumps over "print 0" as 2^64 is not zero
+      var program = "1101,9223372036854775807,1,20,2,20,20,21,4,21,1002,20,2,22,1005,22,19,104,0,99";
+      var outputs = new ArrayList<BigInteger>();
+      var computer = Computer.parse(program).withExactArithmetic(outputs::add);
+
+      assertThat(computer.run()).isEqualTo(Status.HALTED);
+      assertThat(outputs).containsExactly(BigInteger.TWO.pow(126));
+      assertThat(computer.peekExact(22)).isEqualTo(BigInteger.TWO.pow(64));
+      assertThat(computer.peek(22)).isZero();
+
+      computer.poke(22, 5);
+      assertThat(computer.peekExact(22)).isEqualTo(BigInteger.valueOf(5));
+      assertThat(Computer.parse(program).execute()).containsExactly(0L, 0L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void fork_keepsRelativeBase() {
+      var parent = Computer.parse("109,100,3,100,204,0,1105,1,2");
+      assertThat(parent.execute()).isEmpty();
+
+      var child = parent.fork();
+      assertThat(child.execute(42L)).containsExactly(42L);
+      assertThat(parent.execute(7L)).containsExactly(7L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void restore_replaysFromSnapshot() {
+      var computer = Computer.parse(ACCUMULATOR);
+      computer.execute(5L);
+      var snapshot = computer.snapshot();
+
+      assertThat(computer.execute(1L)).containsExactly(6L);
+      computer.restore(snapshot);
+      assertThat(computer.execute(2L)).containsExactly(7L);
+      computer.restore(snapshot);
+      assertThat(computer.execute(3L)).containsExactly(8L);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void run_jumpToNegativeAddress_failsWithTheAddress(final ExecutionMode mode) {
+      var computer = Computer.parse("1105,1,-2").withMode(mode);
+
+      assertThatThrownBy(computer::run).isInstanceOf(IllegalStateException.class)
+                                       .hasMessage("Invalid access to negative address -2");
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void reset_restoresWrittenCellsAndRegisters(final ExecutionMode mode) {
+      // input 1 rewrites the operand of the output instruction at 5, to print 111 instead of 222
+      var computer = Computer.parse("3,20,1005,20,9,4,19,99,0,1101,18,0,6,1105,1,5,0,0,111,222,0").withMode(mode);
+      assertThat(computer.execute(1L)).containsExactly(111L);
+      var page = computer.memory().page(0);
+
+      computer.reset();
+      assertThat(computer.execute(0L)).containsExactly(222L);
+      computer.reset();
+      assertThat(computer.execute(1L)).containsExactly(111L);
+      assertThat(computer.memory().page(0)).isSameAs(page);
+
+      var relative = Computer.parse("109,3,204,-3,99").withMode(mode);
+      assertThat(relative.execute()).containsExactly(109L);
+      relative.reset();
+      assertThat(relative.execute()).containsExactly(109L);
+      assertThat(relative.getInstructionCount()).isEqualTo(3);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_streamsThroughPorts() {
+      var inputs = new LongRingBuffer();
+      LongStream.rangeClosed(1, 100_000).forEach(inputs);
+      var sum = new long[1];
+      var computer = Computer.parse("3,100,4,100,1105,1,0").withInput(inputs).withOutput(value -> sum[0] += value);
+
+      assertThat(computer.run()).isEqualTo(Status.AWAITING_INPUT);
+      assertThat(sum[0]).isEqualTo(5_000_050_000L);
+
+      inputs.accept(1L);
+      assertThat(computer.run()).isEqualTo(Status.AWAITING_INPUT);
+      assertThat(sum[0]).isEqualTo(5_000_050_001L);
+    }
+  }
+
+  static final long PROGRAM_COUNTER_END = -1L;
 
-  private int base;
-  private final Map<Long, Long> initialMemory;
-  private List<Long> inputs;
   @Getter
-  private List<Long> outputs;
+  private long base;
+  @ToString.Exclude
+  private final ProgramImage image;
+  @ToString.Exclude
+  private Consumer<BigInteger> exactOutput;
+  @ToString.Exclude
+  private InputPort input;
+  private LongRingBuffer inputs;
+  @Getter
+  private long instructionCount;
+  @ToString.Exclude
+  private InstructionCache instructions;
+  @ToString.Exclude
+  private Jit jit;
+  @ToString.Exclude
+  private final Jit.Frame jitFrame = new JitFrame();
+  @ToString.Exclude
+  private ExecutionListener listener;
+  @Getter
+  private ExecutionMode mode;
+  @ToString.Exclude
+  private LongConsumer output;
+  private LongRingBuffer outputs;
   private boolean paused;
-  private Long programCounter;
+  @Getter
+  private long programCounter;
 
-  private Map<Long, Long> runningMemory;
+  private Memory runningMemory;
+  @ToString.Exclude
+  private Map<Long, BigInteger> wideCells = new HashMap<>();
 
-  private Computer(final List<Long> memory) {
-    initialMemory = new HashMap<>(memory.size());
-    for (var i = 0; i < memory.size(); i++) {
-      initialMemory.put(Long.valueOf(i), memory.get(i));
-    }
-    runningMemory = new HashMap<>(initialMemory);
+  private Computer(final ProgramImage image) {
+    this.image = image;
+    runningMemory = new Memory(image);
+    instructions = new InstructionCache(image.length());
+    withMode(ExecutionMode.INTERPRETED);
     programCounter = 0L;
-    inputs = newArrayList();
-    outputs = newArrayList();
+    inputs = new LongRingBuffer();
+    outputs = new LongRingBuffer();
+    input = inputs;
+    output = outputs;
     base = 0;
   }
 
+  private Computer(final Computer other) {
+    image = other.image;
+    runningMemory = other.runningMemory.fork();
+    instructions = other.instructions.fork();
+    mode = other.mode;
+    jit = other.jit == null ? null : other.jit.fork();
+    programCounter = other.programCounter;
+    inputs = other.inputs.copy();
+    outputs = other.outputs.copy();
+    input = other.input == other.inputs ? inputs : other.input;
+    output = other.output == other.outputs ? outputs : other.output;
+    base = other.base;
+    paused = other.paused;
+    instructionCount = other.instructionCount;
+    exactOutput = other.exactOutput;
+    wideCells = new HashMap<>(other.wideCells);
+  }
+
+  static Computer of(final long[] image) {
+    return new Computer(ProgramImage.of(image));
+  }
+
+  /**
+   * @return a computer starting from the image, whose memory pages it shares until it writes to them.
+   */
+  static Computer of(final ProgramImage image) {
+    return new Computer(image);
+  }
+
   static Computer parse(final String input) {
-    return new Computer(splitAndMap(input, ",", Long::parseLong));
+    return new Computer(ProgramImage.parse(input));
   }
 
   List<Long> execute() {
@@ -73,159 +290,577 @@ class Computer {
     return execute(Arrays.asList(inputs));
   }
 
+  /**
+   * Runs on the default ports: replaces the pending inputs, and returns only the outputs of this call.
+   */
   List<Long> execute(final Collection<Long> inputs) {
-    log("execute with %s", inputs);
-    this.inputs = newArrayList(inputs);
-    outputs = newArrayList();
+    checkState(input == this.inputs && output == outputs, "execute(...) needs the default ports, use run()");
+    this.inputs.clear();
+    inputs.forEach(this.inputs::accept);
+    outputs.clear();
+    run();
+    return getOutputs();
+  }
+
+  List<Long> getOutputs() {
+    return outputs.toList();
+  }
+
+  /**
+   * Runs until the program halts or needs an input its input port does not have.
+   */
+  Status run() {
+    return run(Long.MAX_VALUE);
+  }
 
+  /**
+   * Runs until the program halts, needs an input its input port does not have, or retired at least the given number of
+   * instructions. A compiled block always runs to its end, so a slice can overshoot by the length of one block.
+   */
+  Status run(final long maxInstructions) {
     paused = false;
-    while (hasNextInstruction() && !paused) {
-      Long opCode = valueAt(programCounter) % 100;
-      log("");
-      log("PC=%s : instruction: %s, opCode %s, base=%s", programCounter, valueAt(programCounter), opCode, base);
-      switch (opCode.intValue()) {
-        case 1 -> sum();
-        case 2 -> multiply();
-        case 3 -> readInput();
-        case 4 -> writeOutput();
-        case 5 -> jumpIf(paramValue(1) != 0);
-        case 6 -> jumpIf(paramValue(1) == 0);
-        case 7 -> lessThan();
-        case 8 -> equals();
-        case 9 -> setBase();
-        case 99 -> terminate();
-        default -> throw new IllegalStateException(format("OpCode %d not recognized. state=%s", opCode, this));
+    var limit = maxInstructions > Long.MAX_VALUE - instructionCount ? Long.MAX_VALUE : instructionCount + maxInstructions;
+    if (exactOutput != null) {
+      while (hasNextInstruction() && !paused && instructionCount < limit) {
+        var instruction = instructions.at(runningMemory, programCounter);
+        // fused compares run as they are, fused additions and multiplications would wrap
+        var compare = instruction.opCode == LESS_THAN || instruction.opCode == EQUALS;
+        if (instruction.fused != null && compare && wideCells.isEmpty() && instructionCount + 1 < limit) {
+          stepFused(instruction);
+        } else {
+          stepExact(instruction);
+        }
+      }
+    } else if (listener != null) {
+      while (hasNextInstruction() && !paused && instructionCount < limit) {
+        observedStep(instructions.at(runningMemory, programCounter));
+      }
+    } else if (jit == null) {
+      while (hasNextInstruction() && !paused && instructionCount < limit) {
+        var instruction = instructions.at(runningMemory, programCounter);
+        if (instruction.fused != null && instructionCount + 1 < limit) {
+          stepFused(instruction);
+        } else {
+          step(instruction);
+        }
+      }
+    } else {
+      while (hasNextInstruction() && !paused && instructionCount < limit) {
+        var block = jit.blockAt(runningMemory, programCounter);
+        if (block != null) {
+          programCounter = block.run(jitFrame);
+        } else {
+          var instruction = instructions.at(runningMemory, programCounter);
+          if (instruction.fused != null && instructionCount + 1 < limit) {
+            stepFused(instruction);
+          } else {
+            step(instruction);
+          }
+        }
       }
     }
-    return getOutputs();
+    if (paused) {
+      return Status.AWAITING_INPUT;
+    }
+    return hasNextInstruction() ? Status.YIELDED : Status.HALTED;
+  }
+
+  /**
+   * Runs until the program halts or needs an input, or until it exceeds the budget or its thread is interrupted.
+   */
+  Budget.Outcome run(final Budget budget) {
+    var start = System.nanoTime();
+    var startCount = instructionCount;
+    var wallClock = budget.getWallClock().toNanos();
+    Budget.Limit exceeded = null;
+    Status status = null;
+    runningMemory.limitCells(budget.getMemoryCells());
+    try {
+      while (true) {
+        var remaining = budget.getInstructions() - (instructionCount - startCount);
+        if (Thread.currentThread().isInterrupted()) {
+          exceeded = Budget.Limit.CANCELLED;
+        } else if (remaining <= 0) {
+          exceeded = Budget.Limit.INSTRUCTIONS;
+        } else if (System.nanoTime() - start >= wallClock) {
+          exceeded = Budget.Limit.WALL_CLOCK;
+        } else {
+          status = run(Math.min(Budget.SLICE, remaining));
+          if (status == Status.YIELDED) {
+            status = null;
+            continue;
+          }
+        }
+        break;
+      }
+    } catch (final Memory.LimitExceededException e) {
+      exceeded = Budget.Limit.MEMORY;
+    } finally {
+      runningMemory.limitCells(Long.MAX_VALUE);
+    }
+    return new Budget.Outcome(status,
+                              exceeded,
+                              instructionCount - startCount,
+                              Duration.ofNanos(System.nanoTime() - start),
+                              runningMemory.cells());
+  }
+
+  /**
+   * @return an independent computer in the same state (memory, program counter, relative base and pending I/O). Memory
+   * pages are shared copy-on-write, so the cost is proportional to the pages either side touches afterwards, and so are
+   * the compiled blocks and hotness counters of the JIT.
+   * <p>
+   * The default input and output buffers are copied, but ports set with {@link #withInput} or {@link #withOutput} are
+   * shared with this computer: a fork reading such a port takes the values this computer would have read. Rebind them
+   * on the fork when both sides keep running.
+   */
+  Computer fork() {
+    return new Computer(this);
   }
 
   List<Long> getRunningMemory() {
-    var maxMemoryIndex = max(runningMemory.keySet());
-    List<Long> result = newArrayList();
-    LongStream.rangeClosed(0L, maxMemoryIndex).mapToObj(this::valueAt).forEachOrdered(result::add);
-    return result;
+    return runningMemory.asList();
+  }
+
+  /**
+   * @return the program this computer was loaded with. Callers must not modify it.
+   */
+  long[] image() {
+    return image.cells();
   }
 
   boolean isRunning() {
     return hasNextInstruction();
   }
 
+  /**
+   * Replaces the memory, its {@link #wideCells() wide cells} and the content of the default buffers with state saved
+   * elsewhere, such as a checkpoint. Registers are set with {@link #moveTo(long, long, long)}.
+   */
+  void load(final Memory memory,
+            final Map<Long, BigInteger> wideCells,
+            final long[] pendingInputs,
+            final long[] pendingOutputs) {
+    runningMemory = memory;
+    this.wideCells = new HashMap<>(wideCells);
+    instructions.clear();
+    if (jit != null) {
+      jit.clear();
+    }
+    inputs.clear();
+    for (var value : pendingInputs) {
+      inputs.accept(value);
+    }
+    outputs.clear();
+    for (var value : pendingOutputs) {
+      outputs.accept(value);
+    }
+  }
+
+  Memory memory() {
+    return runningMemory;
+  }
+
+  /**
+   * Sets the registers to a state reconstructed elsewhere, such as a replayed trace. Memory and ports are left as they
+   * are.
+   */
+  void moveTo(final long programCounter, final long base, final long instructionCount) {
+    this.programCounter = programCounter;
+    this.base = base;
+    this.instructionCount = instructionCount;
+    paused = false;
+  }
+
+  long peek(final long address) {
+    return runningMemory.read(address);
+  }
+
+  /**
+   * @return the value of the cell, including the high bits of a cell promoted by exact arithmetic.
+   */
+  BigInteger peekExact(final long address) {
+    var wide = wideCells.get(address);
+    return wide != null ? wide : BigInteger.valueOf(runningMemory.read(address));
+  }
+
+  long[] pendingInputs() {
+    return inputs.toArray();
+  }
+
+  long[] pendingOutputs() {
+    return outputs.toArray();
+  }
+
+  /**
+   * @return the cells holding a value that does not fit a long, by address. Callers must not modify them.
+   */
+  Map<Long, BigInteger> wideCells() {
+    return wideCells;
+  }
+
+  void poke(final long address, final long value) {
+    writeAt(address, value);
+  }
+
+  /**
+   * Brings the computer back to its initial state: memory, registers, instruction count and the default I/O buffers.
+   * Ports, listener and mode are kept. A memory started from the image only restores the pages written since, and only
+   * the code decoded from a cell that changes back is dropped, so a reused computer pays for what its last run touched.
+   */
   void reset() {
-    runningMemory = new HashMap<>(initialMemory);
+    if (!runningMemory.restore(this::invalidate)) {
+      var offHeap = runningMemory.offHeap();
+      runningMemory = new Memory(image);
+      if (offHeap != null) {
+        offHeap.clear();
+        runningMemory.useOffHeap(offHeap);
+      }
+      instructions.clear();
+      if (jit != null) {
+        jit.clear();
+      }
+    }
+    wideCells.clear();
     programCounter = 0L;
+    base = 0L;
+    instructionCount = 0L;
+    paused = false;
+    inputs.clear();
+    outputs.clear();
   }
 
-  private void equals() {
-    var value = paramValue(1).equals(paramValue(2)) ? 1L : 0L;
-    log("equals: %s == %s => %s", paramValue(1), paramValue(2), value);
-    writeAt(paramAddress(3), value);
-    incrementProgramCounter(4);
+  void restore(final Snapshot snapshot) {
+    var state = snapshot.state.fork();
+    runningMemory = state.runningMemory;
+    wideCells = state.wideCells;
+    instructions = state.instructions;
+    if (jit != null) {
+      jit.clear();
+    }
+    programCounter = state.programCounter;
+    var defaultInput = input == inputs;
+    var defaultOutput = output == outputs;
+    inputs = state.inputs;
+    outputs = state.outputs;
+    if (defaultInput) {
+      input = inputs;
+    }
+    if (defaultOutput) {
+      output = outputs;
+    }
+    base = state.base;
+    paused = state.paused;
+    instructionCount = state.instructionCount;
   }
 
-  private ParamMode getMode(final int index) {
-    return ParamMode.mode((int) (valueAt(programCounter) / 100), index);
+  Snapshot snapshot() {
+    return new Snapshot(fork());
   }
 
-  private boolean hasNextInstruction() {
-    return programCounter != PROGRAM_COUNTER_END;
+  /**
+   * Computes additions and multiplications without wrapping: they run on longs with {@link Math#addExact} and
+   * {@link Math#multiplyExact}, and only a result that overflows is kept as a {@link BigInteger}, in a side store next to
+   * its cell, which holds the low 64 bits. Comparisons, jumps and outputs read the exact values; outputs go to the given
+   * consumer instead of the output port. A cell leaves the side store when it is written again.
+   * <p>
+   * Exact runs are interpreted and not reported to listeners: compiled blocks wrap. Values used as addresses must fit
+   * in a long. {@code null} restores wrapping arithmetic.
+   */
+  Computer withExactArithmetic(final Consumer<BigInteger> output) {
+    exactOutput = output;
+    return this;
   }
 
-  private void incrementProgramCounter(final int step) {
-    log("PC += %s", step);
-    programCounter += step;
+  /**
+   * Reads from the given port instead of the default buffer. {@code null} restores the default buffer.
+   */
+  Computer withInput(final InputPort input) {
+    this.input = input == null ? inputs : input;
+    return this;
   }
 
-  private void jumpIf(final boolean condition) {
-    log("jump-if: %s", condition);
-    if (condition) {
-      log("PC = %s", paramValue(2));
-      programCounter = paramValue(2);
-    } else {
-      incrementProgramCounter(3);
-    }
+  /**
+   * Reports every executed instruction to the listener, running interpreted while it is attached. {@code null}
+   * detaches it.
+   */
+  Computer withListener(final ExecutionListener listener) {
+    this.listener = listener;
+    return this;
   }
 
-  private void lessThan() {
-    var value = paramValue(1) < paramValue(2) ? 1L : 0L;
-    log("less-than: %s < %s => %s", paramValue(1), paramValue(2), value);
-    writeAt(paramAddress(3), value);
-    incrementProgramCounter(4);
+  Computer withMode(final ExecutionMode mode) {
+    this.mode = mode;
+    jit = mode == ExecutionMode.INTERPRETED ? null : new Jit(image, mode.compileThreshold);
+    return this;
   }
 
-  private void log(String format, Object... args) {
-//    System.out.println(format(format, args));
+  /**
+   * Keeps the addresses beyond the pages the program already uses in the given store, off the heap. Such a computer
+   * cannot be forked, snapshotted or checkpointed. The store stays attached across {@link #reset()}, which clears it.
+   */
+  Computer withOffHeapMemory(final OffHeapStore store) {
+    runningMemory.useOffHeap(store);
+    return this;
   }
 
-  private void multiply() {
-    log("multiply: %s * %s", paramValue(1), paramValue(2));
-    writeAt(paramAddress(3), paramValue(1) * paramValue(2));
-    incrementProgramCounter(4);
+  /**
+   * Writes to the given port instead of the default buffer. {@code null} restores the default buffer.
+   */
+  Computer withOutput(final LongConsumer output) {
+    this.output = output == null ? outputs : output;
+    return this;
   }
 
-  private Long paramAddress(final int index) {
-    final var result = valueAt(paramPC(index));
-    return switch (getMode(index)) {
-      case POSITION -> result;
-      case RELATIVE -> base + result;
-      case IMMEDIATE -> throw new IllegalStateException("Param is not valid for mode " + IMMEDIATE);
-    };
+  private long address(final ParamMode mode, final long operand) {
+    return mode == RELATIVE ? base + operand : operand;
   }
 
-  private Long paramPC(final int index) {
-    return programCounter + index;
+  private boolean hasNextInstruction() {
+    return programCounter != PROGRAM_COUNTER_END;
   }
 
-  private Long paramValue(final int index) {
-    final var result = valueAt(paramPC(index));
-    if (getMode(index) == IMMEDIATE) {
-      return result;
+  private void observedStep(final Instruction instruction) {
+    if (instruction.opCode == INPUT && !input.hasNext()) {
+      paused = true;
+      return;
+    }
+    listener.onInstruction(programCounter, instruction);
+    var target = switch (Instruction.writesTo(instruction.opCode)) {
+      case 1 -> address(instruction.mode1, instruction.operand1);
+      case 3 -> address(instruction.mode3, instruction.operand3);
+      default -> -1L;
+    };
+    var printed = instruction.opCode == OUTPUT ? value(instruction.mode1, instruction.operand1) : 0L;
+    var previousBase = base;
+
+    step(instruction);
+
+    if (target >= 0) {
+      var written = runningMemory.read(target);
+      if (instruction.opCode == INPUT) {
+        listener.onInput(written);
+      }
+      listener.onWrite(target, written);
+    }
+    if (instruction.opCode == OUTPUT) {
+      listener.onOutput(printed);
+    }
+    if (base != previousBase) {
+      listener.onBaseChange(base);
     }
-    return valueAt(paramAddress(index));
   }
 
-  private void readInput() {
-    if (inputs.isEmpty()) {
-      log("pause wating for input");
+  private void readInput(final Instruction instruction) {
+    if (!input.hasNext()) {
       paused = true;
       return;
     }
+    writeAt(address(instruction.mode1, instruction.operand1), input.getAsLong());
+    programCounter += 2;
+  }
 
-    var input = inputs.remove(0);
-    log("read: %s", input);
-    writeAt(paramAddress(1), input);
-    incrementProgramCounter(2);
+  private void step(final Instruction instruction) {
+    instructionCount++;
+    switch (instruction.opCode) {
+      case ADD -> {
+        writeAt(address(instruction.mode3, instruction.operand3),
+                value(instruction.mode1, instruction.operand1) + value(instruction.mode2, instruction.operand2));
+        programCounter += 4;
+      }
+      case MULTIPLY -> {
+        writeAt(address(instruction.mode3, instruction.operand3),
+                value(instruction.mode1, instruction.operand1) * value(instruction.mode2, instruction.operand2));
+        programCounter += 4;
+      }
+      case INPUT -> readInput(instruction);
+      case OUTPUT -> {
+        output.accept(value(instruction.mode1, instruction.operand1));
+        programCounter += 2;
+      }
+      case JUMP_IF_TRUE -> programCounter = value(instruction.mode1, instruction.operand1) != 0
+                                            ? value(instruction.mode2, instruction.operand2)
+                                            : programCounter + 3;
+      case JUMP_IF_FALSE -> programCounter = value(instruction.mode1, instruction.operand1) == 0
+                                             ? value(instruction.mode2, instruction.operand2)
+                                             : programCounter + 3;
+      case LESS_THAN -> {
+        writeAt(address(instruction.mode3, instruction.operand3),
+                value(instruction.mode1, instruction.operand1) < value(instruction.mode2, instruction.operand2) ? 1L : 0L);
+        programCounter += 4;
+      }
+      case EQUALS -> {
+        writeAt(address(instruction.mode3, instruction.operand3),
+                value(instruction.mode1, instruction.operand1) == value(instruction.mode2, instruction.operand2) ? 1L : 0L);
+        programCounter += 4;
+      }
+      case ADJUST_BASE -> {
+        base += value(instruction.mode1, instruction.operand1);
+        programCounter += 2;
+      }
+      case HALT -> programCounter = PROGRAM_COUNTER_END;
+      default -> throw new IllegalStateException(format("OpCode %d not recognized. state=%s", instruction.opCode, this));
+    }
   }
 
-  private void setBase() {
-    log("set-base: %s + %s = %s", base, paramValue(1), base + paramValue(1));
-    base += paramValue(1);
-    incrementProgramCounter(2);
+  /**
+   * Runs an instruction and its fused jump as one step. The head writes a fixed cell outside the pair, so the jump is
+   * still valid after the write.
+   */
+  private void stepFused(final Instruction instruction) {
+    instructionCount += 2;
+    var left = value(instruction.mode1, instruction.operand1);
+    var right = value(instruction.mode2, instruction.operand2);
+    var result = switch (instruction.opCode) {
+      case ADD -> left + right;
+      case MULTIPLY -> left * right;
+      case LESS_THAN -> left < right ? 1L : 0L;
+      default -> left == right ? 1L : 0L;
+    };
+    writeAt(instruction.operand3, result);
+    var jump = instruction.fused;
+    var condition = instruction.forwardsResult ? result : value(jump.mode1, jump.operand1);
+    programCounter = (condition != 0) == (jump.opCode == JUMP_IF_TRUE)
+      ? value(jump.mode2, jump.operand2)
+      : programCounter + instruction.span;
   }
 
-  private void sum() {
-    log("sum: %s + %s", paramValue(1), paramValue(2));
-    writeAt(paramAddress(3), paramValue(1) + paramValue(2));
-    incrementProgramCounter(4);
+  /**
+   * Runs an instruction in exact arithmetic. While no cell is wide, only additions, multiplications and outputs differ
+   * from {@link #step(Instruction)}.
+   */
+  private void stepExact(final Instruction instruction) {
+    switch (instruction.opCode) {
+      case ADD, MULTIPLY -> {
+        instructionCount++;
+        var target = address(instruction.mode3, instruction.operand3);
+        if (wideCells.isEmpty()) {
+          var left = value(instruction.mode1, instruction.operand1);
+          var right = value(instruction.mode2, instruction.operand2);
+          try {
+            writeAt(target, instruction.opCode == ADD ? Math.addExact(left, right) : Math.multiplyExact(left, right));
+          } catch (final ArithmeticException e) {
+            writeExact(target, instruction.opCode, BigInteger.valueOf(left), BigInteger.valueOf(right));
+          }
+        } else {
+          writeExact(target,
+                     instruction.opCode,
+                     exactValue(instruction.mode1, instruction.operand1),
+                     exactValue(instruction.mode2, instruction.operand2));
+        }
+        programCounter += 4;
+      }
+      case OUTPUT -> {
+        instructionCount++;
+        exactOutput.accept(exactValue(instruction.mode1, instruction.operand1));
+        programCounter += 2;
+      }
+      case LESS_THAN, EQUALS -> {
+        if (wideCells.isEmpty()) {
+          step(instruction);
+          return;
+        }
+        instructionCount++;
+        var comparison = exactValue(instruction.mode1, instruction.operand1)
+          .compareTo(exactValue(instruction.mode2, instruction.operand2));
+        writeAt(address(instruction.mode3, instruction.operand3),
+                (instruction.opCode == LESS_THAN ? comparison < 0 : comparison == 0) ? 1L : 0L);
+        programCounter += 4;
+      }
+      case JUMP_IF_TRUE, JUMP_IF_FALSE -> {
+        if (wideCells.isEmpty()) {
+          step(instruction);
+          return;
+        }
+        instructionCount++;
+        var condition = exactValue(instruction.mode1, instruction.operand1).signum() != 0;
+        programCounter = condition == (instruction.opCode == JUMP_IF_TRUE)
+          ? narrowValue(instruction.mode2, instruction.operand2)
+          : programCounter + 3;
+      }
+      case ADJUST_BASE -> {
+        if (wideCells.isEmpty()) {
+          step(instruction);
+          return;
+        }
+        instructionCount++;
+        base += narrowValue(instruction.mode1, instruction.operand1);
+        programCounter += 2;
+      }
+      default -> step(instruction);
+    }
   }
 
-  private void terminate() {
-    log("terminate");
-    programCounter = PROGRAM_COUNTER_END;
+  private BigInteger exactValue(final ParamMode mode, final long operand) {
+    return mode == ParamMode.IMMEDIATE ? BigInteger.valueOf(operand) : peekExact(address(mode, operand));
   }
 
-  private Long valueAt(final Long index) {
-    return runningMemory.getOrDefault(index, 0L);
+  private long narrowValue(final ParamMode mode, final long operand) {
+    var exact = exactValue(mode, operand);
+    if (exact.bitLength() >= Long.SIZE) {
+      throw new IllegalStateException(format("%s does not fit in an address. state=%s", exact, this));
+    }
+    return exact.longValue();
   }
 
-  private void writeAt(final Long index, final Long value) {
-    log("[%s] = %s", index, value);
-    runningMemory.put(index, value);
+  private long value(final ParamMode mode, final long operand) {
+    return switch (mode) {
+      case POSITION -> runningMemory.read(operand);
+      case IMMEDIATE -> operand;
+      case RELATIVE -> runningMemory.read(base + operand);
+    };
   }
 
-  private void writeOutput() {
-    log("output: %s", paramValue(1));
-    outputs.add(paramValue(1));
-    incrementProgramCounter(2);
+  /**
+   * Drops the code decoded or compiled from the cell, which changed.
+   *
+   * @return true if compiled code was discarded.
+   */
+  private boolean invalidate(final long index) {
+    instructions.invalidate(index);
+    return jit != null && jit.invalidate(index);
+  }
+
+  private boolean writeAt(final long index, final long value) {
+    runningMemory.write(index, value);
+    if (!wideCells.isEmpty()) {
+      wideCells.remove(index);
+    }
+    return invalidate(index);
+  }
+
+  private void writeExact(final long index, final int opCode, final BigInteger left, final BigInteger right) {
+    var result = opCode == ADD ? left.add(right) : left.multiply(right);
+    writeAt(index, result.longValue());
+    if (result.bitLength() >= Long.SIZE) {
+      wideCells.put(index, result);
+    }
+  }
+
+  private final class JitFrame implements Jit.Frame {
+    @Override
+    public long base() {
+      return base;
+    }
+
+    @Override
+    public void base(final long base) {
+      Computer.this.base = base;
+    }
+
+    @Override
+    public long load(final long address) {
+      return runningMemory.read(address);
+    }
+
+    @Override
+    public void retired(final int instructions) {
+      instructionCount += instructions;
+    }
+
+    @Override
+    public boolean store(final long address, final long value) {
+      return writeAt(address, value);
+    }
   }
 }
@@ -84,6 +84,13 @@ Find the input noun and verb that cause the program to produce the output 196907
 
  */
 class Day02 extends Base {
+  private static final long[] NOUN_AND_VERB = {1, 2};
+  /**
+   * Part 1 results, shared by every instance: asking again for the same program and noun and verb is a cache hit.
+   * Part 2 does not go through it, as the symbolic solver runs the program only once.
+   */
+  private static final ResultCache RESULTS = new ResultCache(1 << 14);
+
   static class Test {
     @ParameterizedTest
     @CsvSource({
@@ -118,13 +125,6 @@ class Day02 extends Base {
       return run();
     }
 
-    Integer execute(final Integer noun, final Integer verb) {
-      memory = newArrayList(opcodes);
-      memory.set(1, noun);
-      memory.set(2, verb);
-      return run();
-    }
-
     List<Integer> getMemory() {
       return memory;
     }
@@ -161,22 +161,15 @@ class Day02 extends Base {
   }
 
   Integer part1() {
-    var program = Program.fromString(inputList().get(0));
-    return program.execute(12, 2);
+    var program = RESULTS.program(inputList().get(0));
+    return (int) program.sweep(NOUN_AND_VERB, new long[] {12, 2}, 0);
   }
 
   Integer part2() {
-    var program = Program.fromString(inputList().get(0));
-
-    Integer desiredOutput = 19690720;
-    for (var noun = 0; noun <= 99; noun++) {
-      for (var verb = 0; verb <= 99; verb++) {
-        if (program.execute(noun, verb).equals(desiredOutput)) {
-          return (100 * noun) + verb;
-        }
-      }
-    }
-    throw new IllegalStateException("Unable to find a valid solution");
+    var image = Computer.parse(inputList().get(0)).image();
+    var nounAndVerb = SymbolicSolver.solve(image, NOUN_AND_VERB, 0, 19690720L, 99, 99)
+      .orElseThrow(() -> new IllegalStateException("Unable to find a valid solution"));
+    return (int) (100 * nounAndVerb[0] + nounAndVerb[1]);
   }
 
 }
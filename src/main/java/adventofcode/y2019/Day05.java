@@ -1,6 +1,6 @@
 package adventofcode.y2019;
 
-import static adventofcode.y2019.Base.inputForDay;
+import static adventofcode.y2019.Base.imageForDay;
 import static adventofcode.y2019.Computer.ParamMode.POSITION;
 import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
 import static adventofcode.y2019.Computer.ParamMode.mode;
@@ -12,6 +12,10 @@ import static java.lang.System.out;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.util.Lists.newArrayList;
 
+import adventofcode.y2019.Computer.ExecutionMode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
 import java.util.Collection;
 
 /*
@@ -193,19 +197,39 @@ class Day05 {
       computer.execute();
       assertThat(computer.getRunningMemory()).containsExactly(1002L, 4L, 3L, 4L, 99L);
     }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void program_evaluateInput8_allModes(final ExecutionMode mode) {
+      var computer = Computer
+        .parse("3,21,1008,21,8,20,1005,20,22,107,8,21,20,1006,20,31,1106,0,36,98,0,0,1002,21,125,20,4,20,1105,1,46,104,999,1105,1,46,1101,1000,1,20,4,20,1105,1,46,98,99")
+        .withMode(mode);
+      assertThat(computer.execute(7L)).containsOnly(999L);
+      computer.reset();
+      assertThat(computer.execute(8L)).containsOnly(1000L);
+      computer.reset();
+      assertThat(computer.execute(9L)).containsOnly(1001L);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void program_selfModifying(final ExecutionMode mode) {
+      var computer = Computer.parse("1101,10,20,6,1101,1,0,12,4,12,99,0,0").withMode(mode);
+      assertThat(computer.execute()).containsExactly(31L);
+    }
   }
 
   public static void main(String[] args) {
-    var program = inputForDay(5).get(0);
+    var program = imageForDay(5);
     out.println(part1(program)); // 5346030
     out.println(part2(program)); // 513116
   }
 
-  private static Collection<Long> part1(final String program) {
-    return Computer.parse(program).execute(1L);
+  private static Collection<Long> part1(final long[] program) {
+    return Computer.of(program).execute(1L);
   }
 
-  private static Collection<Long> part2(final String program) {
-    return Computer.parse(program).execute(5L);
+  private static Collection<Long> part2(final long[] program) {
+    return Computer.of(program).execute(5L);
   }
 }
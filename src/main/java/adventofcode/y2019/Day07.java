@@ -1,15 +1,18 @@
 package adventofcode.y2019;
 
-import static adventofcode.y2019.Base.inputForDay;
+import static adventofcode.y2019.Base.imageForDay;
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.base.Preconditions.checkState;
 import static java.lang.System.out;
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.IntStream.range;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
+import adventofcode.y2019.Computer.ExecutionMode;
+import com.google.common.primitives.Longs;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -109,31 +112,64 @@ class Day07 {
     private final List<Computer> amplifiers;
 
     Amplifiers(final String program, final Integer count) {
-      amplifiers = range(0, count).mapToObj(i -> Computer.parse(program))
+      this(program, count, ExecutionMode.INTERPRETED);
+    }
+
+    Amplifiers(final String program, final Integer count, final ExecutionMode mode) {
+      this(ProgramImage.parse(program), count, mode);
+    }
+
+    Amplifiers(final long[] image, final Integer count, final ExecutionMode mode) {
+      this(ProgramImage.of(image), count, mode);
+    }
+
+    /**
+     * The amplifiers start from one shared image, and only hold the pages they write.
+     */
+    Amplifiers(final ProgramImage image, final Integer count, final ExecutionMode mode) {
+      amplifiers = range(0, count).mapToObj(i -> Computer.of(image).withMode(mode))
                                   .collect(toList());
     }
 
     Integer execute(final List<Integer> phaseSettings) {
-      checkArgument(phaseSettings.size() == amplifiers.size());
-      amplifiers.forEach(Computer::reset);
+      return execute(Longs.toArray(phaseSettings));
+    }
 
-      var inputs = phaseSettings.stream().mapToLong(Long::valueOf).boxed().collect(toList());
-      List<Long> signals = newArrayList(0L);
-      var i = 0;
-      while (amplifiers.stream().anyMatch(Computer::isRunning)) {
-        var amplifier = amplifiers.get(i % amplifiers.size());
+    Integer execute(final long... phaseSettings) {
+      var network = feedbackLoop(phaseSettings);
+      network.runDeterministically();
+      return lastSignal(network);
+    }
 
-        if (!inputs.isEmpty()) {
-          signals.add(0, inputs.remove(0));
-        }
+    /**
+     * Same as {@link #execute(List)}, but with every amplifier on its own thread.
+     */
+    Integer executeConcurrently(final List<Integer> phaseSettings) throws InterruptedException {
+      var network = feedbackLoop(Longs.toArray(phaseSettings));
+      network.runConcurrently();
+      return lastSignal(network);
+    }
 
-        signals = amplifier.execute(signals);
-        i++;
-      }
+    private Network feedbackLoop(final long[] phaseSettings) {
+      checkArgument(phaseSettings.length == amplifiers.size());
+      amplifiers.forEach(Computer::reset);
 
-      return signals.get(0).intValue();
+      var network = new Network();
+      var nodes = amplifiers.stream().map(network::add).collect(toList());
+      for (var i = 0; i < nodes.size(); i++) {
+        network.connect(nodes.get(i), nodes.get((i + 1) % nodes.size()));
+        network.feed(nodes.get(i), phaseSettings[i]);
+      }
+      network.feed(nodes.get(0), 0L);
+      return network;
     }
 
+    private static Integer lastSignal(final Network network) {
+      var nodes = network.nodes();
+      var signal = nodes.get(nodes.size() - 1).lastSent();
+      checkState(signal.isPresent(), "the last amplifier never sent a signal");
+      return (int) signal.getAsLong();
+    }
   }
 
   static class Test {
@@ -159,6 +195,15 @@ class Day07 {
         var actual = amplifierSerie.execute(phaseSettings);
         assertThat(actual).isEqualTo(expectedMaxSignal);
       }
+
+      @ParameterizedTest
+      @MethodSource("examples")
+      void signal_concurrently(final String program, final List<Integer> phaseSettings, final Integer expectedMaxSignal)
+        throws InterruptedException {
+        var amplifierSerie = new Amplifiers(program, phaseSettings.size());
+        var actual = amplifierSerie.executeConcurrently(phaseSettings);
+        assertThat(actual).isEqualTo(expectedMaxSignal);
+      }
     }
 
     static class Part02 {
@@ -185,24 +230,73 @@ class Day07 {
         var actual = amplifierSerie.execute(phaseSettings);
         assertThat(actual).isEqualTo(expectedMaxSignal);
       }
+
+      @ParameterizedTest
+      @MethodSource("examples")
+      void signal_concurrently(final String program, final List<Integer> phaseSettings, final Integer expectedMaxSignal)
+        throws InterruptedException {
+        var amplifierSerie = new Amplifiers(program, phaseSettings.size());
+        var actual = amplifierSerie.executeConcurrently(phaseSettings);
+        assertThat(actual).isEqualTo(expectedMaxSignal);
+      }
+
+      @ParameterizedTest
+      @MethodSource("examples")
+      void signal_allModes(final String program, final List<Integer> phaseSettings, final Integer expectedMaxSignal) {
+        for (var mode : ExecutionMode.values()) {
+          var amplifierSerie = new Amplifiers(program, phaseSettings.size(), mode);
+          assertThat(amplifierSerie.execute(phaseSettings)).as("mode %s", mode).isEqualTo(expectedMaxSignal);
+        }
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void execute_failsWhenTheLastAmplifierIsSilent() {
+      var silent = new Amplifiers("3,0,3,0,99", 2);
+
+      assertThatThrownBy(() -> silent.execute(0, 1)).isInstanceOf(IllegalStateException.class)
+                                                    .hasMessage("the last amplifier never sent a signal");
     }
   }
 
   public static void main(String[] args) {
-    var program = inputForDay(7).get(0);
+    var program = imageForDay(7);
     out.println(part1(program)); // 914828
     out.println(part2(program)); // 17956613
   }
 
   private static Integer part1(final String program) {
-    var amplifiers = new Amplifiers(program, 5);
-    var phases = newArrayList(0, 1, 2, 3, 4);
-    return Permutations.permutations(phases).mapToInt(amplifiers::execute).max().orElseThrow();
+    return part1(ImageParser.parse(program));
+  }
+
+  /**
+   * Each amplifier is a pure function of its phase and input signal, and permutations share prefixes, so most stages
+   * are answered by the cache.
+   */
+  private static Integer part1(final long[] program) {
+    var amplifier = new ResultCache(1024).program(program);
+    var phases = InputSpace.permutations(0, 1, 2, 3, 4);
+    return (int) phases.max(settings -> serialSignal(amplifier, settings)).orElseThrow();
   }
 
   private static Integer part2(final String program) {
-    var amplifiers = new Amplifiers(program, 5);
-    var phases = newArrayList(5, 6, 7, 8, 9);
-    return Permutations.permutations(phases).mapToInt(amplifiers::execute).max().orElseThrow();
+    return part2(ImageParser.parse(program));
+  }
+
+  /**
+   * Amplifiers are stateful, so each thread of the search gets its own.
+   */
+  private static Integer part2(final long[] program) {
+    var amplifiers = ThreadLocal.withInitial(() -> new Amplifiers(program, 5, ExecutionMode.INTERPRETED));
+    var phases = InputSpace.permutations(5, 6, 7, 8, 9);
+    return (int) phases.max(settings -> amplifiers.get().execute(settings)).orElseThrow();
+  }
+
+  private static int serialSignal(final ResultCache.Program amplifier, final long[] phaseSettings) {
+    var signal = 0L;
+    for (var phase : phaseSettings) {
+      signal = amplifier.run(phase, signal)[0];
+    }
+    return (int) signal;
   }
 }
@@ -1,9 +1,13 @@
 package adventofcode.y2019;
 
-import static adventofcode.y2019.Base.inputForDay;
+import static adventofcode.y2019.Base.imageForDay;
 import static java.lang.System.out;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import adventofcode.y2019.Computer.ExecutionMode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
 import java.util.List;
 
 /*
@@ -79,21 +83,28 @@ class Day09 {
         var actual = Computer.parse("104,1125899906842624,99").execute();
         assertThat(actual).containsExactly(1125899906842624L);
       }
+
+      @ParameterizedTest
+      @EnumSource(ExecutionMode.class)
+      void example1_allModes(final ExecutionMode mode) {
+        var actual = Computer.parse("109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99").withMode(mode).execute();
+        assertThat(actual).containsExactly(109L, 1L, 204L, -1L, 1001L, 100L, 1L, 100L, 1008L, 100L, 16L, 101L, 1006L, 101L, 0L, 99L);
+      }
     }
   }
 
   public static void main(String[] args) {
-    var program = inputForDay(9).get(0);
+    var program = imageForDay(9);
     out.println(part1(program)); // 3989758265
     out.println(part2(program)); //
   }
 
-  private static List<Long> part1(final String input) {
-    return Computer.parse(input).execute(1L);
+  private static List<Long> part1(final long[] program) {
+    return Computer.of(program).execute(1L);
   }
 
-  private static List<Long> part2(final String input) {
-    return Computer.parse(input).execute(2L);
+  private static List<Long> part2(final long[] program) {
+    return Computer.of(program).execute(2L);
   }
 
 }
@@ -0,0 +1,24 @@
+package adventofcode.y2019;
+
+/**
+ * Observes every instruction a {@link Computer} executes. A computer with a listener always runs interpreted, in a
+ * separate loop, so computers without one pay nothing for this hook.
+ */
+interface ExecutionListener {
+  /**
+   * Called before the instruction executes. Not called for an input instruction that pauses for lack of input.
+   */
+  void onInstruction(long programCounter, Instruction instruction);
+
+  default void onBaseChange(long base) {
+  }
+
+  default void onInput(long value) {
+  }
+
+  default void onOutput(long value) {
+  }
+
+  default void onWrite(long address, long value) {
+  }
+}
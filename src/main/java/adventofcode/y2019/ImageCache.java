@@ -0,0 +1,112 @@
+package adventofcode.y2019;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Converts text images to {@link ImageFile}s on first use, and serves the binary form afterwards. Entries are keyed by
+ * the URL of the source, and record its length and modification time: a fresh entry is read without touching the
+ * text at all, a stale one is converted again. Nothing on the hit path is hashed, as loading the hashing code alone
+ * would cost more than parsing a typical program.
+ */
+final class ImageCache {
+  private final Path directory;
+  @Getter
+  private long conversions;
+  @Getter
+  private long hits;
+
+  ImageCache(final Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the cells of the image at the given URL, comma-separated text.
+   */
+  synchronized long[] load(final URL source) throws IOException {
+    var path = path(source);
+    var connection = path == null ? source.openConnection() : null;
+    var length = path == null ? connection.getContentLengthLong() : Files.size(path);
+    var modified = path == null ? connection.getLastModified() : Files.getLastModifiedTime(path).toMillis();
+    var file = directory.resolve(fileName(source));
+    if (Files.isRegularFile(file)) {
+      try {
+        var cached = ImageFile.read(file);
+        if (cached.getSourceLength() == length && cached.getSourceModified() == modified) {
+          hits++;
+          return cached.getCells();
+        }
+      } catch (final IOException | RuntimeException e) {
+        // unreadable: converted again below
+      }
+    }
+    long[] cells;
+    try (var text = path == null ? Channels.newChannel(connection.getInputStream()) : FileChannel.open(path)) {
+      cells = ImageParser.parse(text);
+    }
+    Files.createDirectories(directory);
+    ImageFile.of(cells, length, modified).write(file);
+    conversions++;
+    return cells;
+  }
+
+  /**
+   * @return the last segment of the source, made unique by the hash of the whole URL.
+   */
+  private static String fileName(final URL source) {
+    var url = source.toExternalForm();
+    var name = url.substring(url.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+    return String.format("%s-%08x%s", name, url.hashCode(), ImageFile.EXTENSION);
+  }
+
+  /**
+   * @return the file behind a {@code file:} URL, which is cheaper to stat than opening a connection.
+   */
+  private static Path path(final URL source) {
+    try {
+      return "file".equals(source.getProtocol()) ? Path.of(source.toURI()) : null;
+    } catch (final URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void load_convertsOnce_andAgainWhenTheSourceChanges() throws IOException {
+      var directory = Files.createTempDirectory("images");
+      var source = Files.createTempFile("program", ".txt");
+      try {
+        Files.writeString(source, "1,0,0,0,99\n");
+
+        assertThat(new ImageCache(directory).load(source.toUri().toURL())).containsExactly(1, 0, 0, 0, 99);
+        var cache = new ImageCache(directory);
+        assertThat(cache.load(source.toUri().toURL())).containsExactly(1, 0, 0, 0, 99);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getConversions()).isZero();
+
+        Files.writeString(source, "2,0,0,0,99\n");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 1000));
+        assertThat(cache.load(source.toUri().toURL())).containsExactly(2, 0, 0, 0, 99);
+        assertThat(cache.getConversions()).isEqualTo(1);
+      } finally {
+        try (var files = Files.list(directory)) {
+          for (var file : (Iterable<Path>) files::iterator) {
+            Files.delete(file);
+          }
+        }
+        Files.delete(directory);
+        Files.delete(source);
+      }
+    }
+  }
+}
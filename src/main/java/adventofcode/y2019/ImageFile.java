@@ -0,0 +1,140 @@
+package adventofcode.y2019;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A program image in a compact binary form, read by memory-mapping the file and decoding the cells in one pass:
+ * <ul>
+ * <li>a header: magic, version, the length and modification time of the source the image was converted from (0 if
+ * none), and the CRC-32 of the body;</li>
+ * <li>the body: the number of cells and the cells, as zigzag varints ({@link Varints}), so most take one or two
+ * bytes.</li>
+ * </ul>
+ * The checksum is verified on every read, so a truncated or corrupted file is rejected rather than loaded.
+ * Instructions are not stored pre-decoded: the computer decodes them lazily, which costs less than reading a table.
+ */
+@Getter
+final class ImageFile {
+  static final String EXTENSION = ".icb";
+  private static final int HEADER_BYTES = Integer.BYTES + 1 + 2 * Long.BYTES + Integer.BYTES;
+  private static final int MAGIC = 0x49434249;
+  private static final byte VERSION = 2;
+
+  private final long[] cells;
+  private final long sourceLength;
+  private final long sourceModified;
+
+  private ImageFile(final long[] cells, final long sourceLength, final long sourceModified) {
+    this.cells = cells;
+    this.sourceLength = sourceLength;
+    this.sourceModified = sourceModified;
+  }
+
+  static ImageFile of(final long[] cells, final long sourceLength, final long sourceModified) {
+    return new ImageFile(cells, sourceLength, sourceModified);
+  }
+
+  static ImageFile read(final Path file) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (bytes.remaining() < HEADER_BYTES || bytes.getInt() != MAGIC || bytes.get() != VERSION) {
+        throw new IllegalStateException(format("%s is not an image, or an unsupported version", file));
+      }
+      var sourceLength = bytes.getLong();
+      var sourceModified = bytes.getLong();
+      var checksum = bytes.getInt();
+      var crc = new CRC32();
+      crc.update(bytes.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        throw new IllegalStateException(format("%s is corrupted", file));
+      }
+      var cells = new long[Math.toIntExact(Varints.get(bytes))];
+      for (var i = 0; i < cells.length; i++) {
+        cells[i] = Varints.getSigned(bytes);
+      }
+      if (bytes.hasRemaining()) {
+        throw new IllegalStateException(format("%s has trailing bytes", file));
+      }
+      return new ImageFile(cells, sourceLength, sourceModified);
+    }
+  }
+
+  /**
+   * Writes the image to a temporary file first, then moves it in place, so readers never see a partial image.
+   */
+  void write(final Path file) throws IOException {
+    var bytes = ByteBuffer.allocate(HEADER_BYTES + (cells.length + 1) * Varints.MAX_LENGTH);
+    bytes.putInt(MAGIC).put(VERSION).putLong(sourceLength).putLong(sourceModified).position(HEADER_BYTES);
+    Varints.put(bytes, cells.length);
+    for (var cell : cells) {
+      Varints.putSigned(bytes, cell);
+    }
+    var crc = new CRC32();
+    crc.update(bytes.array(), HEADER_BYTES, bytes.position() - HEADER_BYTES);
+    bytes.putInt(HEADER_BYTES - Integer.BYTES, (int) crc.getValue());
+    var directory = file.toAbsolutePath().getParent();
+    var temporary = Files.createTempFile(directory, "image", ".tmp");
+    try (var channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+    try {
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final AtomicMoveNotSupportedException e) {
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void write_thenRead_roundTrips() throws IOException {
+      var program = Base.inputForDay(9).get(0);
+      var cells = ImageParser.parse(program);
+      var file = Files.createTempFile("image", EXTENSION);
+      try {
+        ImageFile.of(cells, 42L, 43L).write(file);
+
+        var read = ImageFile.read(file);
+
+        assertThat(read.getCells()).containsExactly(cells);
+        assertThat(read.getSourceLength()).isEqualTo(42L);
+        assertThat(read.getSourceModified()).isEqualTo(43L);
+        assertThat(Files.size(file)).isLessThan(program.length() / 2);
+      } finally {
+        Files.delete(file);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void read_rejectsCorruptedCells() throws IOException {
+      var file = Files.createTempFile("image", EXTENSION);
+      try {
+        ImageFile.of(new long[] {1, 0, 0, 0, 99}, 0L, 0L).write(file);
+        var bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertThatThrownBy(() -> ImageFile.read(file)).isInstanceOf(IllegalStateException.class)
+                                                      .hasMessageEndingWith("is corrupted");
+      } finally {
+        Files.delete(file);
+      }
+    }
+  }
+}
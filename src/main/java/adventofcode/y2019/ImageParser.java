@@ -0,0 +1,187 @@
+package adventofcode.y2019;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses comma-separated Intcode images straight into a {@code long[]}, one character at a time: no intermediate
+ * strings, no boxing, and the only allocations are the growing result array and, for channels, one read buffer.
+ * <p>
+ * Values are optionally signed decimal longs. Whitespace is allowed around values, and empty fields are skipped, as
+ * {@link Base#splitAndMap} did. Errors report the offset of the offending byte (or character, for text).
+ */
+final class ImageParser {
+  static final class MalformedImageException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final long offset;
+
+    MalformedImageException(final long offset, final String message) {
+      super(format("%s at offset %d", message, offset));
+      this.offset = offset;
+    }
+  }
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int AFTER_VALUE = 3;
+  private static final int BEFORE_VALUE = 0;
+  private static final int IN_DIGITS = 2;
+  private static final int IN_SIGN = 1;
+
+  private int count;
+  private boolean negative;
+  private long offset;
+  private int state = BEFORE_VALUE;
+  private long value;
+  private long[] values = new long[1024];
+
+  private ImageParser() {
+  }
+
+  static long[] parse(final ByteBuffer bytes) {
+    var parser = new ImageParser();
+    parser.feed(bytes);
+    return parser.finish();
+  }
+
+  static long[] parse(final CharSequence text) {
+    var parser = new ImageParser();
+    for (var i = 0; i < text.length(); i++) {
+      parser.accept(text.charAt(i));
+    }
+    return parser.finish();
+  }
+
+  static long[] parse(final ReadableByteChannel channel) throws IOException {
+    return parse(channel, ByteBuffer.allocate(BUFFER_SIZE));
+  }
+
+  private static long[] parse(final ReadableByteChannel channel, final ByteBuffer buffer) throws IOException {
+    var parser = new ImageParser();
+    while (channel.read(buffer.clear()) >= 0) {
+      parser.feed(buffer.flip());
+    }
+    return parser.finish();
+  }
+
+  private void accept(final int character) {
+    switch (character) {
+      case ',' -> {
+        if (state == IN_SIGN) {
+          throw new MalformedImageException(offset, "Expecting a digit after the sign");
+        }
+        if (state != BEFORE_VALUE) {
+          append();
+        }
+        state = BEFORE_VALUE;
+      }
+      case ' ', '\t', '\r', '\n' -> {
+        if (state == IN_SIGN) {
+          throw new MalformedImageException(offset, "Expecting a digit after the sign");
+        }
+        if (state == IN_DIGITS) {
+          state = AFTER_VALUE;
+        }
+      }
+      case '-', '+' -> {
+        if (state != BEFORE_VALUE) {
+          throw new MalformedImageException(offset, format("Unexpected '%c'", (char) character));
+        }
+        negative = character == '-';
+        value = 0L;
+        state = IN_SIGN;
+      }
+      default -> {
+        if (character < '0' || character > '9') {
+          throw new MalformedImageException(offset, format("Unexpected '%c'", (char) character));
+        }
+        if (state == AFTER_VALUE) {
+          throw new MalformedImageException(offset, "Expecting ','");
+        }
+        if (state == BEFORE_VALUE) {
+          negative = false;
+          value = 0L;
+        }
+        // accumulates negatively, as Long.parseLong does, so that Long.MIN_VALUE fits
+        var digit = character - '0';
+        var limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        if (value < Long.MIN_VALUE / 10 || value * 10 < limit + digit) {
+          throw new MalformedImageException(offset, "Value out of the range of a long");
+        }
+        value = value * 10 - digit;
+        state = IN_DIGITS;
+      }
+    }
+    offset++;
+  }
+
+  private void append() {
+    if (count == values.length) {
+      values = Arrays.copyOf(values, count * 2);
+    }
+    values[count++] = negative ? value : -value;
+  }
+
+  private void feed(final ByteBuffer bytes) {
+    while (bytes.hasRemaining()) {
+      accept(bytes.get() & 0xFF);
+    }
+  }
+
+  private long[] finish() {
+    if (state == IN_SIGN) {
+      throw new MalformedImageException(offset, "Expecting a digit after the sign");
+    }
+    if (state != BEFORE_VALUE) {
+      append();
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void parse_acceptsWhatSplitAndMapAccepted() {
+      assertThat(parse(" 1, -2 ,+3,,9223372036854775807,-9223372036854775808,\n")).containsExactly(
+        1L, -2L, 3L, Long.MAX_VALUE, Long.MIN_VALUE);
+      assertThat(parse("")).isEmpty();
+    }
+
+    @org.junit.jupiter.api.Test
+    void parse_reportsOffsets() {
+      assertThatThrownBy(() -> parse("1,2,x3"))
+        .isInstanceOf(MalformedImageException.class)
+        .hasMessage("Unexpected 'x' at offset 4");
+      assertThatThrownBy(() -> parse("1,2 3")).hasMessage("Expecting ',' at offset 4");
+      assertThatThrownBy(() -> parse("1,-,3")).hasMessage("Expecting a digit after the sign at offset 3");
+      assertThatThrownBy(() -> parse("9223372036854775808"))
+        .isInstanceOfSatisfying(MalformedImageException.class, e -> assertThat(e.getOffset()).isEqualTo(18));
+    }
+
+    @org.junit.jupiter.api.Test
+    void parse_channelAcrossBufferBoundaries() throws IOException {
+      var image = new StringBuilder();
+      for (var i = -500; i < 500; i++) {
+        image.append(i * 1_000_003L).append(i % 7 == 0 ? ", " : ",");
+      }
+      var bytes = image.toString().getBytes(StandardCharsets.US_ASCII);
+
+      var actual = parse(Channels.newChannel(new ByteArrayInputStream(bytes)), ByteBuffer.allocate(7));
+
+      var expected = Base.splitAndMap(image.toString(), ",", Long::parseLong);
+      assertThat(actual).containsExactly(expected.stream().mapToLong(Long::longValue).toArray());
+      assertThat(parse(ByteBuffer.wrap(bytes))).containsExactly(actual);
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package adventofcode.y2019;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Source of Intcode input values. {@link #getAsLong()} is only called after {@link #hasNext()} returned true; when it
+ * returns false the computer pauses on its input instruction.
+ */
+interface InputPort extends LongSupplier {
+  boolean hasNext();
+}
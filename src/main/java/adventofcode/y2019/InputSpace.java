@@ -0,0 +1,174 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+
+/**
+ * A finite space of input vectors, searched in parallel. Vectors are numbered in lexicographic order and decoded from
+ * their index, so the space splits across the common pool by index ranges without materializing it.
+ * <p>
+ * The functions given to the searches run concurrently: each call should use its own computers, for instance forked
+ * from a per-thread template.
+ */
+final class InputSpace {
+  private final Decoder decoder;
+  private final long size;
+  private final int width;
+
+  private InputSpace(final long size, final int width, final Decoder decoder) {
+    this.size = size;
+    this.width = width;
+    this.decoder = decoder;
+  }
+
+  /**
+   * @return the vectors of one value of each factor, the last factor varying fastest.
+   */
+  static InputSpace product(final InputSpace... factors) {
+    var size = 1L;
+    var width = 0;
+    for (var factor : factors) {
+      size = Math.multiplyExact(size, factor.size);
+      width += factor.width;
+    }
+    return new InputSpace(size, width, (index, vector, offset) -> {
+      var rest = index;
+      var end = offset + vector.length;
+      for (var i = factors.length - 1; i >= 0; i--) {
+        end -= factors[i].width;
+        factors[i].decoder.decode(rest % factors[i].size, vector, end);
+        rest /= factors[i].size;
+      }
+    });
+  }
+
+  /**
+   * @return the permutations of the values.
+   */
+  static InputSpace permutations(final long... values) {
+    var sorted = values.clone();
+    Arrays.sort(sorted);
+    var factorials = new long[values.length + 1];
+    Arrays.setAll(factorials, Permutations::factorial);
+    return new InputSpace(factorials[values.length], values.length, (index, vector, offset) -> {
+      var left = sorted.clone();
+      var rest = index;
+      for (var i = 0; i < left.length; i++) {
+        var subFactorial = factorials[left.length - 1 - i];
+        var pick = i + (int) (rest / subFactorial);
+        rest %= subFactorial;
+        var value = left[pick];
+        System.arraycopy(left, i, left, i + 1, pick - i);
+        left[i] = value;
+        vector[offset + i] = value;
+      }
+    });
+  }
+
+  /**
+   * @return the single values from {@code from} to {@code to}, both included.
+   */
+  static InputSpace range(final long from, final long to) {
+    checkArgument(from <= to, "empty range");
+    return new InputSpace(Math.addExact(Math.subtractExact(to, from), 1), 1,
+                          (index, vector, offset) -> vector[offset] = from + index);
+  }
+
+  long[] at(final long index) {
+    checkArgument(index >= 0 && index < size, "index %s out of the space", index);
+    var result = new long[width];
+    decoder.decode(index, result, 0);
+    return result;
+  }
+
+  /**
+   * @return the vector with the highest score, the first one on ties.
+   */
+  Optional<long[]> argMax(final ToLongFunction<long[]> score) {
+    return indices().mapToObj(index -> new Scored(index, score.applyAsLong(at(index))))
+      .max(Comparator.comparingLong((Scored scored) -> scored.score).thenComparing(scored -> -scored.index))
+      .map(scored -> at(scored.index));
+  }
+
+  /**
+   * @return the first vector, in index order, that matches. Workers stop as soon as a match is found before them.
+   */
+  Optional<long[]> findFirst(final Predicate<long[]> predicate) {
+    return indices().mapToObj(this::at).filter(predicate).findFirst();
+  }
+
+  OptionalLong max(final ToLongFunction<long[]> score) {
+    return indices().map(index -> score.applyAsLong(at(index))).max();
+  }
+
+  long size() {
+    return size;
+  }
+
+  private LongStream indices() {
+    return LongStream.range(0, size).parallel();
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void at_enumeratesInLexicographicOrder() {
+      var space = InputSpace.product(InputSpace.range(1, 2), InputSpace.permutations(7, 8, 9));
+
+      assertThat(space.size()).isEqualTo(12);
+      assertThat(space.at(0)).containsExactly(1, 7, 8, 9);
+      assertThat(space.at(1)).containsExactly(1, 7, 9, 8);
+      assertThat(space.at(5)).containsExactly(1, 9, 8, 7);
+      assertThat(space.at(6)).containsExactly(2, 7, 8, 9);
+    }
+
+    @org.junit.jupiter.api.Test
+    void permutations_matchPermutations() {
+      var space = InputSpace.permutations(0, 1, 2, 3, 4);
+
+      for (var index = 0; index < space.size(); index++) {
+        var expected = Permutations.permutation(index, Arrays.asList(0L, 1L, 2L, 3L, 4L));
+        assertThat(space.at(index)).containsExactly(expected.stream().mapToLong(Long::longValue).toArray());
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void findFirst_returnsTheLowestMatch() {
+      var space = InputSpace.product(InputSpace.range(0, 999), InputSpace.range(0, 999));
+
+      var result = space.findFirst(pair -> pair[0] * pair[1] == 360);
+
+      assertThat(result).hasValueSatisfying(pair -> assertThat(pair).containsExactly(1, 360));
+      assertThat(space.findFirst(pair -> pair[0] < 0)).isEmpty();
+    }
+
+    @org.junit.jupiter.api.Test
+    void max_reducesInParallel() {
+      var space = InputSpace.permutations(1, 2, 3, 4);
+
+      assertThat(space.max(digits -> digits[0] * 1000 - digits[3])).hasValue(3999);
+      assertThat(space.argMax(digits -> digits[0] * 1000 - digits[3]).get()).containsExactly(4, 2, 3, 1);
+    }
+  }
+
+  private interface Decoder {
+    void decode(long index, long[] vector, int offset);
+  }
+
+  private static final class Scored {
+    private final long index;
+    private final long score;
+
+    Scored(final long index, final long score) {
+      this.index = index;
+      this.score = score;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
+import static adventofcode.y2019.Computer.ParamMode.POSITION;
+import static java.lang.String.format;
+
+import adventofcode.y2019.Computer.ParamMode;
+import lombok.ToString;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A decoded Intcode instruction: opcode, parameter modes and the raw operand cells, read once from memory.
+ * <p>
+ * An arithmetic or compare instruction directly followed by a conditional jump can carry that jump as {@link #fused},
+ * so the interpreter runs both in a single step.
+ */
+@ToString
+final class Instruction {
+  static final int ADD = 1;
+  static final int MULTIPLY = 2;
+  static final int INPUT = 3;
+  static final int OUTPUT = 4;
+  static final int JUMP_IF_TRUE = 5;
+  static final int JUMP_IF_FALSE = 6;
+  static final int LESS_THAN = 7;
+  static final int EQUALS = 8;
+  static final int ADJUST_BASE = 9;
+  static final int HALT = 99;
+
+  static final int MAX_LENGTH = 4;
+  static final int MAX_FUSED_LENGTH = MAX_LENGTH + 3;
+
+  /**
+   * The jump run in the same step, or {@code null}.
+   */
+  final Instruction fused;
+  /**
+   * Whether the fused jump tests the cell this instruction writes, so its condition is the value just computed.
+   */
+  final boolean forwardsResult;
+  final int length;
+  final ParamMode mode1;
+  final ParamMode mode2;
+  final ParamMode mode3;
+  final int opCode;
+  final long operand1;
+  final long operand2;
+  final long operand3;
+  /**
+   * The number of cells covered, including the fused jump.
+   */
+  final int span;
+
+  private Instruction(final int opCode, final long code, final long operand1, final long operand2, final long operand3) {
+    this.opCode = opCode;
+    length = length(opCode);
+    var modes = (int) (code / 100);
+    mode1 = length > 1 ? ParamMode.mode(modes, 1) : null;
+    mode2 = length > 2 ? ParamMode.mode(modes, 2) : null;
+    mode3 = length > 3 ? ParamMode.mode(modes, 3) : null;
+    this.operand1 = operand1;
+    this.operand2 = operand2;
+    this.operand3 = operand3;
+    fused = null;
+    forwardsResult = false;
+    span = length;
+  }
+
+  private Instruction(final Instruction head, final Instruction jump) {
+    opCode = head.opCode;
+    length = head.length;
+    mode1 = head.mode1;
+    mode2 = head.mode2;
+    mode3 = head.mode3;
+    operand1 = head.operand1;
+    operand2 = head.operand2;
+    operand3 = head.operand3;
+    fused = jump;
+    forwardsResult = jump.mode1 == POSITION && jump.operand1 == head.operand3;
+    span = head.length + jump.length;
+  }
+
+  static Instruction decode(final Memory memory, final long address) {
+    return decode(memory::read, address);
+  }
+
+  /**
+   * Decodes the instruction at the given address, reading cells from any memory layout.
+   */
+  static Instruction decode(final LongUnaryOperator cells, final long address) {
+    var code = cells.applyAsLong(address);
+    var opCode = (int) (code % 100);
+    var length = length(opCode);
+    var instruction = new Instruction(opCode,
+                                      code,
+                                      length > 1 ? cells.applyAsLong(address + 1) : 0L,
+                                      length > 2 ? cells.applyAsLong(address + 2) : 0L,
+                                      length > 3 ? cells.applyAsLong(address + 3) : 0L);
+    if (writesTo(opCode) == 1 && instruction.mode1 == IMMEDIATE || writesTo(opCode) == 3 && instruction.mode3 == IMMEDIATE) {
+      throw new IllegalStateException(format("Param is not valid for mode %s at %d", IMMEDIATE, address));
+    }
+    return instruction;
+  }
+
+  /**
+   * @return the pair as one superinstruction, or {@code null} if they cannot be fused: the head must be arithmetic or a
+   * comparison writing a fixed cell outside the pair, and the next instruction a conditional jump.
+   */
+  static Instruction fuse(final Instruction head, final long address, final Instruction next) {
+    if (!isFusionHead(head) || next.opCode != JUMP_IF_TRUE && next.opCode != JUMP_IF_FALSE) {
+      return null;
+    }
+    var target = head.operand3;
+    if (target >= address && target < address + head.length + next.length) {
+      return null;
+    }
+    return new Instruction(head, next);
+  }
+
+  static boolean isFusionHead(final Instruction instruction) {
+    return switch (instruction.opCode) {
+      case ADD, MULTIPLY, LESS_THAN, EQUALS -> instruction.mode3 == POSITION;
+      default -> false;
+    };
+  }
+
+  static String mnemonic(final int opCode) {
+    return switch (opCode) {
+      case ADD -> "add";
+      case MULTIPLY -> "mul";
+      case INPUT -> "in";
+      case OUTPUT -> "out";
+      case JUMP_IF_TRUE -> "jt";
+      case JUMP_IF_FALSE -> "jf";
+      case LESS_THAN -> "lt";
+      case EQUALS -> "eq";
+      case ADJUST_BASE -> "arb";
+      case HALT -> "hlt";
+      default -> "?" + opCode;
+    };
+  }
+
+  static int length(final int opCode) {
+    return switch (opCode) {
+      case ADD, MULTIPLY, LESS_THAN, EQUALS -> 4;
+      case JUMP_IF_TRUE, JUMP_IF_FALSE -> 3;
+      case INPUT, OUTPUT, ADJUST_BASE -> 2;
+      case HALT -> 1;
+      default -> throw new IllegalStateException(format("OpCode %d not recognized", opCode));
+    };
+  }
+
+  /**
+   * @return the index of the parameter the opcode writes to, or 0 if it does not write memory.
+   */
+  static int writesTo(final int opCode) {
+    return switch (opCode) {
+      case ADD, MULTIPLY, LESS_THAN, EQUALS -> 3;
+      case INPUT -> 1;
+      default -> 0;
+    };
+  }
+}
@@ -0,0 +1,113 @@
+package adventofcode.y2019;
+
+import static java.lang.Math.max;
+
+import java.util.Arrays;
+
+/**
+ * Decoded instructions indexed by program counter. A write landing on a decoded cell drops every instruction that
+ * covers it, so self-modifying programs are decoded again on their next visit.
+ * <p>
+ * Instructions followed by a conditional jump are fused with it when decoded (see {@link Instruction#fuse}). A fused
+ * instruction covers the jump's cells too, so overwriting the jump undoes the fusion.
+ */
+final class InstructionCache {
+  private static final int MAX_CAPACITY = 1 << 24;
+
+  private Instruction[] instructions;
+  private boolean shared;
+
+  InstructionCache(final int capacity) {
+    instructions = new Instruction[max(capacity, 1)];
+  }
+
+  private InstructionCache(final InstructionCache other) {
+    instructions = other.instructions;
+    shared = true;
+  }
+
+  Instruction at(final Memory memory, final long address) {
+    Memory.checkAddress(address);
+    if (address < instructions.length) {
+      var result = instructions[(int) address];
+      if (result == null) {
+        result = decode(memory, address);
+        own();
+        instructions[(int) address] = result;
+      }
+      return result;
+    }
+    if (address < MAX_CAPACITY) {
+      grow((int) address);
+      return at(memory, address);
+    }
+    return Instruction.decode(memory, address);
+  }
+
+  void clear() {
+    if (shared) {
+      instructions = new Instruction[instructions.length];
+      shared = false;
+    } else {
+      Arrays.fill(instructions, null);
+    }
+  }
+
+  /**
+   * @return a cache for a forked memory, sharing the decoded instructions until either side changes them.
+   */
+  InstructionCache fork() {
+    shared = true;
+    return new InstructionCache(this);
+  }
+
+  void invalidate(final long address) {
+    if (address >= instructions.length) {
+      return;
+    }
+    var from = (int) max(0, address - Instruction.MAX_FUSED_LENGTH + 1);
+    for (var i = from; i <= address; i++) {
+      var instruction = instructions[i];
+      if (instruction != null && i + instruction.span > address) {
+        own();
+        instructions[i] = null;
+      }
+    }
+  }
+
+  private Instruction decode(final Memory memory, final long address) {
+    var result = Instruction.decode(memory, address);
+    if (!Instruction.isFusionHead(result)) {
+      return result;
+    }
+    var next = address + result.length;
+    var nextOpCode = memory.read(next) % 100;
+    if (nextOpCode != Instruction.JUMP_IF_TRUE && nextOpCode != Instruction.JUMP_IF_FALSE) {
+      return result;
+    }
+    Instruction jump;
+    try {
+      jump = at(memory, next);
+    } catch (IllegalStateException e) {
+      return result;
+    }
+    var fused = Instruction.fuse(result, address, jump);
+    return fused == null ? result : fused;
+  }
+
+  private void grow(final int address) {
+    var capacity = instructions.length;
+    while (capacity <= address) {
+      capacity <<= 1;
+    }
+    instructions = Arrays.copyOf(instructions, Math.min(capacity, MAX_CAPACITY));
+    shared = false;
+  }
+
+  private void own() {
+    if (shared) {
+      instructions = instructions.clone();
+      shared = false;
+    }
+  }
+}
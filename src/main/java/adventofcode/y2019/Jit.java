@@ -0,0 +1,605 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
+import static adventofcode.y2019.Computer.ParamMode.RELATIVE;
+import static adventofcode.y2019.Instruction.ADD;
+import static adventofcode.y2019.Instruction.ADJUST_BASE;
+import static adventofcode.y2019.Instruction.EQUALS;
+import static adventofcode.y2019.Instruction.JUMP_IF_FALSE;
+import static adventofcode.y2019.Instruction.JUMP_IF_TRUE;
+import static adventofcode.y2019.Instruction.LESS_THAN;
+import static adventofcode.y2019.Instruction.MULTIPLY;
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.ParamMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-computer code cache for the tiered execution mode. Entry points that get hot are compiled as straight-line basic
+ * blocks (arithmetic, compare and base instructions up to the first jump) into a JVM class, so HotSpot can optimise
+ * them. Input, output and halt are left to the interpreter. Any write to a compiled cell discards the blocks covering
+ * it. The compiled classes themselves are shared by the computers running one {@link ProgramImage} (see
+ * {@link CodeCache}).
+ */
+final class Jit {
+  /**
+   * A compiled basic block: runs it against the frame and returns the next program counter.
+   */
+  public interface Block {
+    long run(Frame frame);
+  }
+
+  /**
+   * The computer state a compiled block can touch.
+   */
+  public interface Frame {
+    long base();
+
+    void base(long base);
+
+    long load(long address);
+
+    void retired(int instructions);
+
+    /**
+     * @return true if the write invalidated compiled code, and the block must give control back.
+     */
+    boolean store(long address, long value);
+  }
+
+  private static final int MAX_BLOCK_INSTRUCTIONS = 256;
+  private static final int MAX_CAPACITY = 1 << 24;
+  private static final int NOT_COMPILABLE = -1;
+
+  private Block[] blocks = new Block[0];
+  private final CodeCache code;
+  private int[] coverage = new int[0];
+  private int[] ends = new int[0];
+  private int[] hotness = new int[0];
+  private final int initialCapacity;
+  private boolean shared;
+  private final int threshold;
+
+  /**
+   * The tables are only allocated when the computer first runs.
+   */
+  Jit(final ProgramImage image, final int threshold) {
+    code = image.code();
+    initialCapacity = max(image.length(), 1);
+    this.threshold = threshold;
+  }
+
+  private Jit(final Jit other) {
+    blocks = other.blocks;
+    code = other.code;
+    coverage = other.coverage;
+    ends = other.ends;
+    hotness = other.hotness;
+    initialCapacity = other.initialCapacity;
+    shared = true;
+    threshold = other.threshold;
+  }
+
+  /**
+   * @return the compiled block starting at the address, compiling it if the address just became hot.
+   */
+  Block blockAt(final Memory memory, final long address) {
+    Memory.checkAddress(address);
+    if (address >= blocks.length) {
+      if (address >= MAX_CAPACITY) {
+        return null;
+      }
+      grow((int) address);
+    }
+    var index = (int) address;
+    var result = blocks[index];
+    if (result == null && hotness[index] != NOT_COMPILABLE) {
+      own();
+      if (++hotness[index] > threshold) {
+        result = compile(memory, index);
+        hotness[index] = result == null ? NOT_COMPILABLE : 0;
+      }
+    }
+    return result;
+  }
+
+  void clear() {
+    if (shared) {
+      blocks = new Block[0];
+      coverage = new int[0];
+      ends = new int[0];
+      hotness = new int[0];
+      shared = false;
+    } else {
+      Arrays.fill(blocks, null);
+      Arrays.fill(coverage, 0);
+      Arrays.fill(hotness, 0);
+    }
+  }
+
+  /**
+   * @return a code cache for a forked computer, sharing the compiled blocks and hotness counters until either side
+   * changes them.
+   */
+  Jit fork() {
+    shared = true;
+    return new Jit(this);
+  }
+
+  /**
+   * @return true if compiled code was discarded.
+   */
+  boolean invalidate(final long address) {
+    if (address >= coverage.length || coverage[(int) address] == 0) {
+      return false;
+    }
+    own();
+    var from = (int) max(0, address - MAX_BLOCK_INSTRUCTIONS * Instruction.MAX_LENGTH);
+    for (var start = from; start <= address; start++) {
+      if (blocks[start] != null && address < ends[start]) {
+        for (var i = start; i < ends[start]; i++) {
+          coverage[i]--;
+        }
+        blocks[start] = null;
+        hotness[start] = 0;
+      }
+    }
+    return true;
+  }
+
+  private Block compile(final Memory memory, final int start) {
+    List<Instruction> instructions = new ArrayList<>();
+    var address = (long) start;
+    while (instructions.size() < MAX_BLOCK_INSTRUCTIONS) {
+      Instruction instruction;
+      try {
+        instruction = Instruction.decode(memory, address);
+      } catch (IllegalStateException e) {
+        break;
+      }
+      if (!isCompilable(instruction.opCode)) {
+        break;
+      }
+      instructions.add(instruction);
+      address += instruction.length;
+      if (instruction.opCode == JUMP_IF_TRUE || instruction.opCode == JUMP_IF_FALSE) {
+        break;
+      }
+    }
+    if (instructions.isEmpty() || address > blocks.length) {
+      return null;
+    }
+
+    var cells = new long[(int) (address - start)];
+    for (var i = 0; i < cells.length; i++) {
+      cells[i] = memory.read(start + i);
+    }
+    var end = (int) address;
+    var result = code.computeIfAbsent(new BlockKey(start, cells), end, instructions);
+    blocks[start] = result;
+    ends[start] = end;
+    for (var i = start; i < end; i++) {
+      coverage[i]++;
+    }
+    return result;
+  }
+
+  private void grow(final int address) {
+    var capacity = max(blocks.length, initialCapacity);
+    while (capacity <= address) {
+      capacity <<= 1;
+    }
+    capacity = Math.min(capacity, MAX_CAPACITY);
+    blocks = Arrays.copyOf(blocks, capacity);
+    coverage = Arrays.copyOf(coverage, capacity);
+    ends = Arrays.copyOf(ends, capacity);
+    hotness = Arrays.copyOf(hotness, capacity);
+    shared = false;
+  }
+
+  private void own() {
+    if (shared) {
+      blocks = blocks.clone();
+      coverage = coverage.clone();
+      ends = ends.clone();
+      hotness = hotness.clone();
+      shared = false;
+    }
+  }
+
+  private static boolean isCompilable(final int opCode) {
+    return switch (opCode) {
+      case ADD, MULTIPLY, LESS_THAN, EQUALS, JUMP_IF_TRUE, JUMP_IF_FALSE, ADJUST_BASE -> true;
+      default -> false;
+    };
+  }
+
+  /**
+   * The compiled blocks of one program, shared by every computer running it. Their classes are defined by a loader of
+   * their own, so they are unloaded with the {@link ProgramImage}. Past {@link #MAX_BLOCKS}, say for a sweep patching
+   * code cells, the cache starts over with a new loader, and the old classes go once no computer runs them any more.
+   */
+  static final class CodeCache {
+    static final int MAX_BLOCKS = 4096;
+
+    private final Map<BlockKey, Block> blocks = new HashMap<>();
+    private BlockLoader loader;
+
+    synchronized int size() {
+      return blocks.size();
+    }
+
+    private synchronized Block computeIfAbsent(final BlockKey key, final int end, final List<Instruction> instructions) {
+      var result = blocks.get(key);
+      if (result == null) {
+        if (loader == null || blocks.size() >= MAX_BLOCKS) {
+          blocks.clear();
+          loader = new BlockLoader();
+        }
+        result = BlockCompiler.compile(loader, key.start, end, instructions);
+        blocks.put(key, result);
+      }
+      return result;
+    }
+  }
+
+  private static final class BlockKey {
+    private final long[] cells;
+    private final int hash;
+    private final int start;
+
+    BlockKey(final int start, final long[] cells) {
+      this.start = start;
+      this.cells = cells;
+      hash = 31 * start + Arrays.hashCode(cells);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (!(other instanceof BlockKey)) {
+        return false;
+      }
+      var that = (BlockKey) other;
+      return start == that.start && Arrays.equals(cells, that.cells);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Defines the classes of one {@link CodeCache} generation: they only implement the public {@link Block} and call the
+   * public {@link Frame}, so they need no access to the package of the loader that defined Jit.
+   */
+  private static final class BlockLoader extends ClassLoader {
+    BlockLoader() {
+      super(Jit.class.getClassLoader());
+    }
+
+    Class<?> define(final byte[] bytes) {
+      return defineClass(null, bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Emits one class per block. Locals: 0 = this, 1 = frame, 2-3 = relative base. The class file version predates
+   * stack map frames, so branches need no frame bookkeeping.
+   */
+  private static final class BlockCompiler {
+    private static final String BLOCK = "adventofcode/y2019/Jit$Block";
+    private static final String FRAME = "adventofcode/y2019/Jit$Frame";
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int GOTO = 0xA7;
+    private static final int IFEQ = 0x99;
+    private static final int IFGE = 0x9C;
+    private static final int IFNE = 0x9A;
+    private static final int INVOKEINTERFACE = 0xB9;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int LADD = 0x61;
+    private static final int LCMP = 0x94;
+    private static final int LCONST_0 = 0x09;
+    private static final int LCONST_1 = 0x0A;
+    private static final int LDC2_W = 0x14;
+    private static final int LLOAD_2 = 0x20;
+    private static final int LMUL = 0x69;
+    private static final int LRETURN = 0xAD;
+    private static final int LSTORE_2 = 0x41;
+    private static final int RETURN = 0xB1;
+    private static final int SIPUSH = 0x11;
+
+    private final Bytes code = new Bytes();
+    private final Bytes pool = new Bytes();
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolSize = 1;
+
+    static Block compile(final BlockLoader loader, final int start, final int end,
+                         final List<Instruction> instructions) {
+      var bytes = new BlockCompiler().assemble(start, end, instructions);
+      try {
+        return (Block) loader.define(bytes).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to load compiled block at " + start, e);
+      }
+    }
+
+    private byte[] assemble(final int start, final int end, final List<Instruction> instructions) {
+      var thisClass = classRef("adventofcode/y2019/JitBlock" + SEQUENCE.incrementAndGet());
+      var objectClass = classRef("java/lang/Object");
+      var blockInterface = classRef(BLOCK);
+      var codeName = utf8("Code");
+
+      code.u1(ALOAD_1).u1(INVOKEINTERFACE).u2(frameMethod("base", "()J")).u1(1).u1(0).u1(LSTORE_2);
+      var pc = (long) start;
+      for (var i = 0; i < instructions.size(); i++) {
+        var instruction = instructions.get(i);
+        emit(instruction, i, pc);
+        pc += instruction.length;
+      }
+      if (!isJump(instructions.get(instructions.size() - 1))) {
+        exit(instructions.size());
+        constant(end);
+        code.u1(LRETURN);
+      }
+      var runCode = code.toArray();
+
+      code.reset();
+      code.u1(ALOAD_0).u1(INVOKESPECIAL).u2(methodRef(objectClass, "<init>", "()V")).u1(RETURN);
+      var initCode = code.toArray();
+
+      var initName = utf8("<init>");
+      var initDescriptor = utf8("()V");
+      var runName = utf8("run");
+      var runDescriptor = utf8("(L" + FRAME + ";)J");
+
+      var result = new Bytes();
+      result.u4(0xCAFEBABE).u2(0).u2(49);
+      result.u2(poolSize).bytes(pool.toArray());
+      result.u2(0x0031).u2(thisClass).u2(objectClass);
+      result.u2(1).u2(blockInterface);
+      result.u2(0);
+      result.u2(2);
+      method(result, initName, initDescriptor, codeName, 1, 1, initCode);
+      method(result, runName, runDescriptor, codeName, 16, 4, runCode);
+      result.u2(0);
+      return result.toArray();
+    }
+
+    private void emit(final Instruction instruction, final int index, final long pc) {
+      switch (instruction.opCode) {
+        case ADD, MULTIPLY, LESS_THAN, EQUALS -> {
+          code.u1(ALOAD_1);
+          address(instruction.mode3, instruction.operand3);
+          value(instruction.mode1, instruction.operand1);
+          value(instruction.mode2, instruction.operand2);
+          switch (instruction.opCode) {
+            case ADD -> code.u1(LADD);
+            case MULTIPLY -> code.u1(LMUL);
+            default -> {
+              code.u1(LCMP);
+              var whenFalse = branch(instruction.opCode == LESS_THAN ? IFGE : IFNE);
+              code.u1(LCONST_1);
+              var end = branch(GOTO);
+              patch(whenFalse);
+              code.u1(LCONST_0);
+              patch(end);
+            }
+          }
+          code.u1(INVOKEINTERFACE).u2(frameMethod("store", "(JJ)Z")).u1(5).u1(0);
+          var next = branch(IFEQ);
+          exit(index + 1);
+          constant(pc + instruction.length);
+          code.u1(LRETURN);
+          patch(next);
+        }
+        case ADJUST_BASE -> {
+          code.u1(LLOAD_2);
+          value(instruction.mode1, instruction.operand1);
+          code.u1(LADD).u1(LSTORE_2);
+        }
+        case JUMP_IF_TRUE, JUMP_IF_FALSE -> {
+          value(instruction.mode1, instruction.operand1);
+          code.u1(LCONST_0).u1(LCMP);
+          var fallThrough = branch(instruction.opCode == JUMP_IF_TRUE ? IFEQ : IFNE);
+          exit(index + 1);
+          value(instruction.mode2, instruction.operand2);
+          code.u1(LRETURN);
+          patch(fallThrough);
+          exit(index + 1);
+          constant(pc + instruction.length);
+          code.u1(LRETURN);
+        }
+        default -> throw new IllegalStateException("OpCode not compilable: " + instruction.opCode);
+      }
+    }
+
+    private void address(final ParamMode mode, final long operand) {
+      constant(operand);
+      if (mode == RELATIVE) {
+        code.u1(LLOAD_2).u1(LADD);
+      }
+    }
+
+    private int branch(final int opCode) {
+      var at = code.size();
+      code.u1(opCode).u2(0);
+      return at;
+    }
+
+    private int classRef(final String name) {
+      var nameIndex = utf8(name);
+      return entry("C" + name, new Bytes().u1(7).u2(nameIndex));
+    }
+
+    private void constant(final long value) {
+      if (value == 0L) {
+        code.u1(LCONST_0);
+      } else if (value == 1L) {
+        code.u1(LCONST_1);
+      } else {
+        code.u1(LDC2_W).u2(longConstant(value));
+      }
+    }
+
+    private int entry(final String key, final Bytes bytes) {
+      var existing = poolIndexes.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      var index = poolSize;
+      pool.bytes(bytes.toArray());
+      poolSize += key.startsWith("J") ? 2 : 1;
+      poolIndexes.put(key, index);
+      return index;
+    }
+
+    private void exit(final int retired) {
+      code.u1(ALOAD_1).u1(SIPUSH).u2(retired).u1(INVOKEINTERFACE).u2(frameMethod("retired", "(I)V")).u1(2).u1(0);
+      code.u1(ALOAD_1).u1(LLOAD_2).u1(INVOKEINTERFACE).u2(frameMethod("base", "(J)V")).u1(3).u1(0);
+    }
+
+    private int frameMethod(final String name, final String descriptor) {
+      var owner = classRef(FRAME);
+      var nameAndType = nameAndType(name, descriptor);
+      return entry("I" + name + descriptor, new Bytes().u1(11).u2(owner).u2(nameAndType));
+    }
+
+    private static boolean isJump(final Instruction instruction) {
+      return instruction.opCode == JUMP_IF_TRUE || instruction.opCode == JUMP_IF_FALSE;
+    }
+
+    private int longConstant(final long value) {
+      return entry("J" + value, new Bytes().u1(5).u4((int) (value >>> 32)).u4((int) value));
+    }
+
+    private static void method(final Bytes out, final int name, final int descriptor, final int codeName,
+                               final int maxStack, final int maxLocals, final byte[] code) {
+      out.u2(0x0001).u2(name).u2(descriptor).u2(1);
+      out.u2(codeName).u4(12 + code.length).u2(maxStack).u2(maxLocals).u4(code.length).bytes(code).u2(0).u2(0);
+    }
+
+    private int methodRef(final int owner, final String name, final String descriptor) {
+      var nameAndType = nameAndType(name, descriptor);
+      return entry("M" + owner + name + descriptor, new Bytes().u1(10).u2(owner).u2(nameAndType));
+    }
+
+    private int nameAndType(final String name, final String descriptor) {
+      var nameIndex = utf8(name);
+      var descriptorIndex = utf8(descriptor);
+      return entry("N" + name + descriptor, new Bytes().u1(12).u2(nameIndex).u2(descriptorIndex));
+    }
+
+    private void patch(final int branch) {
+      code.patch(branch + 1, code.size() - branch);
+    }
+
+    private int utf8(final String value) {
+      var bytes = value.getBytes(UTF_8);
+      return entry("U" + value, new Bytes().u1(1).u2(bytes.length).bytes(bytes));
+    }
+
+    private void value(final ParamMode mode, final long operand) {
+      if (mode == IMMEDIATE) {
+        constant(operand);
+        return;
+      }
+      code.u1(ALOAD_1);
+      address(mode, operand);
+      code.u1(INVOKEINTERFACE).u2(frameMethod("load", "(J)J")).u1(3).u1(0);
+    }
+  }
+
+  private static final class Bytes {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    Bytes bytes(final byte[] values) {
+      ensure(values.length);
+      System.arraycopy(values, 0, bytes, size, values.length);
+      size += values.length;
+      return this;
+    }
+
+    void patch(final int at, final int value) {
+      bytes[at] = (byte) (value >>> 8);
+      bytes[at + 1] = (byte) value;
+    }
+
+    void reset() {
+      size = 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] toArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    Bytes u1(final int value) {
+      ensure(1);
+      bytes[size++] = (byte) value;
+      return this;
+    }
+
+    Bytes u2(final int value) {
+      return u1(value >>> 8).u1(value);
+    }
+
+    Bytes u4(final int value) {
+      return u2(value >>> 16).u2(value);
+    }
+
+    private void ensure(final int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, max(bytes.length * 2, size + extra));
+      }
+    }
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void compiledBlocks_areSharedPerImage_andLoadedApart() {
+      var image = ProgramImage.parse("1101,1,2,20,1102,3,4,21,1105,1,12,99,1,20,21,22,99");
+      var computer = Computer.of(image).withMode(Computer.ExecutionMode.EAGER);
+      computer.run();
+      assertThat(computer.peek(22)).isEqualTo(15);
+      assertThat(image.code().size()).isEqualTo(2);
+
+      var block = new Jit(image, 0).blockAt(computer.memory(), 0);
+      assertThat(new Jit(image, 0).blockAt(computer.memory(), 0)).isSameAs(block);
+      assertThat(image.code().size()).isEqualTo(2);
+      assertThat(block.getClass().getClassLoader()).isInstanceOf(BlockLoader.class);
+      assertThat(ProgramImage.parse("1101,1,2,20,99").code()).isNotSameAs(image.code());
+    }
+
+    @org.junit.jupiter.api.Test
+    void fork_sharesTables_untilEitherSideChangesThem() {
+      var image = ProgramImage.parse("1101,1,2,20,1102,3,4,21,1105,1,12,99,1,20,21,22,99");
+      var memory = new Memory(image);
+      var parent = new Jit(image, 1);
+      parent.blockAt(memory, 0);
+      var block = parent.blockAt(memory, 0);
+      var child = parent.fork();
+
+      assertThat(block).isNotNull();
+      assertThat(child.blockAt(memory, 0)).isSameAs(block);
+      assertThat(child.invalidate(1)).isTrue();
+      assertThat(parent.blockAt(memory, 0)).isSameAs(block);
+      assertThat(child.blockAt(memory, 0)).isNull();
+    }
+  }
+}
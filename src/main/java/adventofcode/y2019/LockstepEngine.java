@@ -0,0 +1,580 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
+import static adventofcode.y2019.Computer.ParamMode.POSITION;
+import static adventofcode.y2019.Computer.ParamMode.RELATIVE;
+import static adventofcode.y2019.Instruction.ADD;
+import static adventofcode.y2019.Instruction.ADJUST_BASE;
+import static adventofcode.y2019.Instruction.EQUALS;
+import static adventofcode.y2019.Instruction.HALT;
+import static adventofcode.y2019.Instruction.INPUT;
+import static adventofcode.y2019.Instruction.JUMP_IF_FALSE;
+import static adventofcode.y2019.Instruction.JUMP_IF_TRUE;
+import static adventofcode.y2019.Instruction.LESS_THAN;
+import static adventofcode.y2019.Instruction.MULTIPLY;
+import static adventofcode.y2019.Instruction.OUTPUT;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.ParamMode;
+import adventofcode.y2019.Computer.Status;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Runs many instances (lanes) of one program in lockstep. Memory is a structure of arrays: the cells of every lane for
+ * one address sit next to each other. Lanes sharing a program counter form a group, which decodes and dispatches each
+ * instruction once for all its lanes; when every lane is in the group and the parameters resolve to the same cells,
+ * the instruction is a plain loop over the lanes.
+ * <p>
+ * A jump sending lanes to different addresses splits their group, and groups reaching the same address merge again:
+ * the group with the lowest program counter always runs first, so lanes left behind catch up. Written cells are marked
+ * as varying between lanes; an instruction read from varying cells gets its operands, and opcode, lane by lane.
+ */
+final class LockstepEngine {
+  private static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+  private static final int MAX_SWEEP_LANES = 1024;
+  private static final long PARKED = -2L;
+
+  private long[] bases;
+  private int capacity;
+  private long[] cells;
+  private Instruction[] decoded;
+  @Getter
+  private long dispatches;
+  private final LongRingBuffer[] inputs;
+  @Getter
+  private long instructions;
+  private final int lanes;
+  private final long[] next;
+  private final LongRingBuffer[] outputs;
+  private final long[] parked;
+  private final TreeMap<Long, Group> ready = new TreeMap<>();
+  private boolean sharedBase = true;
+  private final Status[] statuses;
+  private boolean[] varying;
+
+  private LockstepEngine(final long[] image, final int lanes) {
+    checkArgument(lanes > 0, "at least one lane");
+    this.lanes = lanes;
+    capacity = 0;
+    cells = new long[0];
+    decoded = new Instruction[0];
+    varying = new boolean[0];
+    ensureCapacity(Math.max(image.length, 16) - 1);
+    for (var address = 0; address < image.length; address++) {
+      Arrays.fill(cells, address * lanes, (address + 1) * lanes, image[address]);
+    }
+    bases = new long[lanes];
+    inputs = new LongRingBuffer[lanes];
+    outputs = new LongRingBuffer[lanes];
+    parked = new long[lanes];
+    statuses = new Status[lanes];
+    next = new long[lanes];
+    var group = new Group(0L);
+    for (var lane = 0; lane < lanes; lane++) {
+      inputs[lane] = new LongRingBuffer();
+      outputs[lane] = new LongRingBuffer();
+      statuses[lane] = Status.YIELDED;
+      group.add(lane);
+    }
+    ready.put(0L, group);
+  }
+
+  static LockstepEngine of(final long[] image, final int lanes) {
+    return new LockstepEngine(image, lanes);
+  }
+
+  static LockstepEngine parse(final String program, final int lanes) {
+    return of(Computer.parse(program).image(), lanes);
+  }
+
+  /**
+   * Same contract as {@link BatchRunner#sweep}, running the vectors in lockstep, {@value #MAX_SWEEP_LANES} lanes at a
+   * time.
+   */
+  static long[] sweep(final String program, final long[] addresses, final long[][] values, final long resultAddress) {
+    var image = Computer.parse(program).image();
+    var results = new long[values.length];
+    for (var from = 0; from < values.length; from += MAX_SWEEP_LANES) {
+      var engine = of(image, Math.min(MAX_SWEEP_LANES, values.length - from));
+      for (var lane = 0; lane < engine.lanes; lane++) {
+        checkArgument(values[from + lane].length == addresses.length, "vector %s has the wrong size", from + lane);
+        for (var i = 0; i < addresses.length; i++) {
+          engine.poke(lane, addresses[i], values[from + lane][i]);
+        }
+      }
+      engine.run();
+      for (var lane = 0; lane < engine.lanes; lane++) {
+        results[from + lane] = engine.peek(lane, resultAddress);
+      }
+    }
+    return results;
+  }
+
+  void feed(final int lane, final long... values) {
+    for (var value : values) {
+      inputs[lane].accept(value);
+    }
+  }
+
+  long[] outputs(final int lane) {
+    return outputs[lane].toArray();
+  }
+
+  long peek(final int lane, final long address) {
+    return read(address, lane);
+  }
+
+  void poke(final int lane, final long address, final long value) {
+    write(address, lane, value);
+  }
+
+  /**
+   * Runs every lane until it halts or needs an input it does not have.
+   */
+  void run() {
+    for (var lane = 0; lane < lanes; lane++) {
+      if (statuses[lane] == Status.AWAITING_INPUT && inputs[lane].hasNext()) {
+        statuses[lane] = Status.YIELDED;
+        var group = new Group(parked[lane]);
+        group.add(lane);
+        schedule(group);
+      }
+    }
+    while (!ready.isEmpty()) {
+      var group = ready.pollFirstEntry().getValue();
+      do {
+        step(group);
+      } while (group.size > 0 && (ready.isEmpty() || group.pc < ready.firstKey()));
+      if (group.size > 0) {
+        schedule(group);
+      }
+    }
+  }
+
+  Status status(final int lane) {
+    return statuses[lane];
+  }
+
+  private static long operand(final long[] cells, final int index, final long immediate, final int lane) {
+    return index < 0 ? immediate : cells[index + lane];
+  }
+
+  private long address(final ParamMode mode, final long operand, final int lane) {
+    return mode == RELATIVE ? bases[lane] + operand : operand;
+  }
+
+  private void arithmetic(final int opCode, final int left, final long leftValue, final int right,
+                          final long rightValue, final int target) {
+    var values = cells;
+    switch (opCode) {
+      case ADD -> {
+        for (var lane = 0; lane < lanes; lane++) {
+          values[target + lane] = operand(values, left, leftValue, lane) + operand(values, right, rightValue, lane);
+        }
+      }
+      case MULTIPLY -> {
+        for (var lane = 0; lane < lanes; lane++) {
+          values[target + lane] = operand(values, left, leftValue, lane) * operand(values, right, rightValue, lane);
+        }
+      }
+      case LESS_THAN -> {
+        for (var lane = 0; lane < lanes; lane++) {
+          values[target + lane] =
+            operand(values, left, leftValue, lane) < operand(values, right, rightValue, lane) ? 1L : 0L;
+        }
+      }
+      default -> {
+        for (var lane = 0; lane < lanes; lane++) {
+          values[target + lane] =
+            operand(values, left, leftValue, lane) == operand(values, right, rightValue, lane) ? 1L : 0L;
+        }
+      }
+    }
+  }
+
+  private static void checkAddress(final long address) {
+    if (address < 0) {
+      throw new IllegalStateException(format("Invalid access to negative address %d", address));
+    }
+  }
+
+  /**
+   * @return the address every lane of a full group resolves the parameter to, or -1 for an immediate parameter.
+   */
+  private long denseAddress(final ParamMode mode, final long operand) {
+    if (mode == IMMEDIATE) {
+      return -1;
+    }
+    var address = mode == RELATIVE ? bases[0] + operand : operand;
+    ensureCapacity(address);
+    return address;
+  }
+
+  private void ensureCapacity(final long address) {
+    checkAddress(address);
+    if (address < capacity) {
+      return;
+    }
+    var grown = Math.max(16L, Long.highestOneBit(address) << 1);
+    if (grown * lanes > MAX_CELLS) {
+      throw new IllegalStateException(format("Address %d does not fit in memory with %d lanes", address, lanes));
+    }
+    capacity = (int) grown;
+    cells = Arrays.copyOf(cells, capacity * lanes);
+    decoded = Arrays.copyOf(decoded, capacity);
+    varying = Arrays.copyOf(varying, capacity);
+  }
+
+  private boolean isShared(final ParamMode mode) {
+    return mode != RELATIVE || sharedBase;
+  }
+
+  private void markVarying(final long address) {
+    var cell = (int) address;
+    if (!varying[cell]) {
+      varying[cell] = true;
+      for (var start = Math.max(0, cell - Instruction.MAX_LENGTH + 1); start <= cell; start++) {
+        decoded[start] = null;
+      }
+    }
+  }
+
+  private long read(final long address, final int lane) {
+    checkAddress(address);
+    return address < capacity ? cells[(int) address * lanes + lane] : 0L;
+  }
+
+  /**
+   * Files the lanes of a group under their next program counter: lanes going where the first one goes stay in the
+   * group, the others are scheduled as new groups.
+   */
+  private void regroup(final Group group, final int count) {
+    var pc = group.pc;
+    var kept = 0;
+    var target = PARKED;
+    HashMap<Long, Group> others = null;
+    for (var i = 0; i < count; i++) {
+      var lane = group.lanes[i];
+      var lanePc = next[i];
+      if (lanePc == PARKED) {
+        parked[lane] = pc;
+        statuses[lane] = Status.AWAITING_INPUT;
+      } else if (lanePc == Computer.PROGRAM_COUNTER_END) {
+        statuses[lane] = Status.HALTED;
+      } else if (kept == 0 && target == PARKED || lanePc == target) {
+        target = lanePc;
+        group.lanes[kept++] = lane;
+      } else {
+        if (others == null) {
+          others = new HashMap<>();
+        }
+        others.computeIfAbsent(lanePc, Group::new).add(lane);
+      }
+    }
+    group.size = kept;
+    group.pc = target;
+    if (others != null) {
+      others.values().forEach(this::schedule);
+    }
+  }
+
+  private void schedule(final Group group) {
+    var existing = ready.get(group.pc);
+    if (existing == null) {
+      ready.put(group.pc, group);
+      return;
+    }
+    for (var i = 0; i < group.size; i++) {
+      existing.add(group.lanes[i]);
+    }
+    if (existing.size == lanes) {
+      Arrays.setAll(existing.lanes, lane -> lane);
+    }
+  }
+
+  private void step(final Group group) {
+    var instruction = uniformAt(group.pc);
+    if (instruction == null || group.size < lanes || !stepDense(group, instruction)) {
+      stepLanes(group, instruction);
+    }
+  }
+
+  /**
+   * Runs an instruction for a full group whose parameters resolve to the same cells in every lane.
+   *
+   * @return false if the instruction needs per-lane addressing or its lanes diverge, leaving the group untouched.
+   */
+  private boolean stepDense(final Group group, final Instruction instruction) {
+    switch (instruction.opCode) {
+      case ADD, MULTIPLY, LESS_THAN, EQUALS -> {
+        if (!isShared(instruction.mode1) || !isShared(instruction.mode2) || !isShared(instruction.mode3)) {
+          return false;
+        }
+        var left = denseAddress(instruction.mode1, instruction.operand1);
+        var right = denseAddress(instruction.mode2, instruction.operand2);
+        var target = denseAddress(instruction.mode3, instruction.operand3);
+        markVarying(target);
+        arithmetic(instruction.opCode,
+                   (int) (left * lanes),
+                   instruction.operand1,
+                   (int) (right * lanes),
+                   instruction.operand2,
+                   (int) (target * lanes));
+        group.pc += 4;
+      }
+      case JUMP_IF_TRUE, JUMP_IF_FALSE -> {
+        if (!isShared(instruction.mode1) || instruction.mode2 != IMMEDIATE) {
+          return false;
+        }
+        var condition = denseAddress(instruction.mode1, instruction.operand1);
+        var nonZero = instruction.operand1 != 0 ? lanes : 0;
+        if (condition >= 0) {
+          nonZero = 0;
+          var index = (int) (condition * lanes);
+          for (var lane = 0; lane < lanes; lane++) {
+            nonZero += cells[index + lane] != 0 ? 1 : 0;
+          }
+          if (nonZero != 0 && nonZero != lanes) {
+            return false;
+          }
+        }
+        var jumps = (nonZero == lanes) == (instruction.opCode == JUMP_IF_TRUE);
+        group.pc = jumps ? instruction.operand2 : group.pc + 3;
+      }
+      case ADJUST_BASE -> {
+        if (!isShared(instruction.mode1)) {
+          return false;
+        }
+        var source = denseAddress(instruction.mode1, instruction.operand1);
+        if (source < 0) {
+          for (var lane = 0; lane < lanes; lane++) {
+            bases[lane] += instruction.operand1;
+          }
+        } else {
+          var index = (int) (source * lanes);
+          for (var lane = 0; lane < lanes; lane++) {
+            bases[lane] += cells[index + lane];
+          }
+          updateSharedBase();
+        }
+        group.pc += 2;
+      }
+      default -> {
+        return false;
+      }
+    }
+    dispatches++;
+    instructions += lanes;
+    return true;
+  }
+
+  /**
+   * Runs one instruction lane by lane: with shared operands when the instruction is uniform, otherwise decoding it
+   * from each lane's own cells.
+   */
+  private void stepLanes(final Group group, final Instruction uniform) {
+    var pc = group.pc;
+    var count = group.size;
+    var instruction = uniform;
+    var code = Long.MIN_VALUE;
+    var adjustsBase = false;
+    for (var i = 0; i < count; i++) {
+      var lane = group.lanes[i];
+      if (uniform == null && read(pc, lane) != code) {
+        code = read(pc, lane);
+        var laneCode = code;
+        instruction = Instruction.decode(address -> address == pc ? laneCode : 0L, pc);
+      }
+      adjustsBase |= instruction.opCode == ADJUST_BASE;
+      next[i] = stepLane(instruction, pc, lane, uniform == null);
+      instructions += next[i] == PARKED ? 0 : 1;
+    }
+    dispatches++;
+    if (adjustsBase) {
+      updateSharedBase();
+    }
+    regroup(group, count);
+  }
+
+  /**
+   * @return the next program counter of the lane, {@link #PARKED} if it waits for input.
+   */
+  private long stepLane(final Instruction instruction, final long pc, final int lane, final boolean ownOperands) {
+    var operand1 = ownOperands && instruction.length > 1 ? read(pc + 1, lane) : instruction.operand1;
+    var operand2 = ownOperands && instruction.length > 2 ? read(pc + 2, lane) : instruction.operand2;
+    var operand3 = ownOperands && instruction.length > 3 ? read(pc + 3, lane) : instruction.operand3;
+    switch (instruction.opCode) {
+      case ADD -> write(address(instruction.mode3, operand3, lane),
+                        lane,
+                        value(instruction.mode1, operand1, lane) + value(instruction.mode2, operand2, lane));
+      case MULTIPLY -> write(address(instruction.mode3, operand3, lane),
+                             lane,
+                             value(instruction.mode1, operand1, lane) * value(instruction.mode2, operand2, lane));
+      case LESS_THAN -> write(address(instruction.mode3, operand3, lane),
+                              lane,
+                              value(instruction.mode1, operand1, lane) < value(instruction.mode2, operand2, lane) ? 1L : 0L);
+      case EQUALS -> write(address(instruction.mode3, operand3, lane),
+                           lane,
+                           value(instruction.mode1, operand1, lane) == value(instruction.mode2, operand2, lane) ? 1L : 0L);
+      case INPUT -> {
+        if (!inputs[lane].hasNext()) {
+          return PARKED;
+        }
+        write(address(instruction.mode1, operand1, lane), lane, inputs[lane].getAsLong());
+      }
+      case OUTPUT -> outputs[lane].accept(value(instruction.mode1, operand1, lane));
+      case JUMP_IF_TRUE -> {
+        return value(instruction.mode1, operand1, lane) != 0 ? value(instruction.mode2, operand2, lane) : pc + 3;
+      }
+      case JUMP_IF_FALSE -> {
+        return value(instruction.mode1, operand1, lane) == 0 ? value(instruction.mode2, operand2, lane) : pc + 3;
+      }
+      case ADJUST_BASE -> bases[lane] += value(instruction.mode1, operand1, lane);
+      case HALT -> {
+        return Computer.PROGRAM_COUNTER_END;
+      }
+      default -> throw new IllegalStateException(format("OpCode %d not recognized", instruction.opCode));
+    }
+    return pc + instruction.length;
+  }
+
+  /**
+   * @return the instruction at the address if its cells are the same in every lane, decoded once, {@code null}
+   * otherwise.
+   */
+  private Instruction uniformAt(final long address) {
+    if (address >= capacity || varying[(int) address]) {
+      return null;
+    }
+    var result = decoded[(int) address];
+    if (result == null) {
+      result = Instruction.decode(cell -> read(cell, 0), address);
+      for (var cell = address + 1; cell < address + result.length; cell++) {
+        if (cell >= capacity || varying[(int) cell]) {
+          return null;
+        }
+      }
+      decoded[(int) address] = result;
+    }
+    return result;
+  }
+
+  private void updateSharedBase() {
+    sharedBase = true;
+    for (var lane = 1; lane < lanes && sharedBase; lane++) {
+      sharedBase = bases[lane] == bases[0];
+    }
+  }
+
+  private long value(final ParamMode mode, final long operand, final int lane) {
+    return mode == IMMEDIATE ? operand : read(address(mode, operand, lane), lane);
+  }
+
+  private void write(final long address, final int lane, final long value) {
+    ensureCapacity(address);
+    markVarying(address);
+    cells[(int) address * lanes + lane] = value;
+  }
+
+  static class Test {
+    private static final String COMPARE_TO_8 =
+      "3,21,1008,21,8,20,1005,20,22,107,8,21,20,1006,20,31,1106,0,36,98,0,0,1002,21,125,20,4,20,1105,1,46,104,999,1105,1,46,1101,1000,1,20,4,20,1105,1,46,98,99";
+
+    @org.junit.jupiter.api.Test
+    void sweep_matchesBatchRunner() {
+      var values = new long[300][];
+      for (var i = 0; i < values.length; i++) {
+        values[i] = new long[] {i % 5, i / 5 % 5};
+      }
+      var program = "1,0,0,0,2,0,9,0,99,7";
+      var addresses = new long[] {1, 2};
+
+      assertThat(LockstepEngine.sweep(program, addresses, values, 0))
+        .containsExactly(BatchRunner.parse(program).sweep(addresses, values, 0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_divergingLanes_splitAndMerge() {
+      var engine = LockstepEngine.parse(COMPARE_TO_8, 10);
+      for (var lane = 0; lane < 10; lane++) {
+        engine.feed(lane, lane + 3);
+      }
+
+      engine.run();
+
+      for (var lane = 0; lane < 10; lane++) {
+        var expected = lane + 3 < 8 ? 999L : lane + 3 == 8 ? 1000L : 1001L;
+        assertThat(engine.outputs(lane)).as("lane %s", lane).containsExactly(expected);
+        assertThat(engine.status(lane)).isEqualTo(Status.HALTED);
+      }
+      assertThat(engine.getDispatches()).isLessThan(engine.getInstructions());
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_relativeBase_matchesComputer() {
+      var quine = "109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99";
+      var engine = LockstepEngine.parse(quine, 64);
+
+      engine.run();
+
+      var expected = Computer.parse(quine).execute().stream().mapToLong(Long::longValue).toArray();
+      for (var lane = 0; lane < 64; lane++) {
+        assertThat(engine.outputs(lane)).containsExactly(expected);
+      }
+      assertThat(engine.getDispatches() * 64).isEqualTo(engine.getInstructions());
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_differentOpcodesPerLane() {
+      var engine = LockstepEngine.parse("1,5,6,0,99,3,4", 2);
+      engine.poke(1, 0, 2);
+
+      engine.run();
+
+      assertThat(engine.peek(0, 0)).isEqualTo(7L);
+      assertThat(engine.peek(1, 0)).isEqualTo(12L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_awaitingInput_resumesWhenFed() {
+      var engine = LockstepEngine.parse("3,100,1,100,101,101,4,101,1105,1,0", 3);
+      engine.feed(0, 1);
+      engine.feed(2, 5, 5);
+
+      engine.run();
+
+      assertThat(engine.outputs(0)).containsExactly(1L);
+      assertThat(engine.outputs(1)).isEmpty();
+      assertThat(engine.outputs(2)).containsExactly(5L, 10L);
+      assertThat(engine.status(1)).isEqualTo(Status.AWAITING_INPUT);
+
+      engine.feed(1, 7);
+      engine.run();
+
+      assertThat(engine.outputs(1)).containsExactly(7L);
+    }
+  }
+
+  private static final class Group {
+    private int[] lanes = new int[4];
+    private long pc;
+    private int size;
+
+    Group(final long pc) {
+      this.pc = pc;
+    }
+
+    void add(final int lane) {
+      if (size == lanes.length) {
+        lanes = Arrays.copyOf(lanes, size * 2);
+      }
+      lanes[size++] = lane;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Unbounded FIFO of primitive longs on a power-of-two ring, the default Intcode port in both directions.
+ */
+final class LongRingBuffer implements InputPort, LongConsumer {
+  private long[] elements;
+  private int head;
+  private int size;
+
+  LongRingBuffer() {
+    this(16);
+  }
+
+  LongRingBuffer(final int capacity) {
+    elements = new long[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+  }
+
+  @Override
+  public void accept(final long value) {
+    if (size == elements.length) {
+      grow();
+    }
+    elements[(head + size) & (elements.length - 1)] = value;
+    size++;
+  }
+
+  void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  LongRingBuffer copy() {
+    var result = new LongRingBuffer(0);
+    result.elements = elements.clone();
+    result.head = head;
+    result.size = size;
+    return result;
+  }
+
+  @Override
+  public long getAsLong() {
+    checkState(size > 0, "buffer is empty");
+    var result = elements[head];
+    head = (head + 1) & (elements.length - 1);
+    size--;
+    return result;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return size > 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long[] toArray() {
+    var result = new long[size];
+    for (var i = 0; i < size; i++) {
+      result[i] = elements[(head + i) & (elements.length - 1)];
+    }
+    return result;
+  }
+
+  List<Long> toList() {
+    List<Long> result = new ArrayList<>(size);
+    for (var i = 0; i < size; i++) {
+      result.add(elements[(head + i) & (elements.length - 1)]);
+    }
+    return result;
+  }
+
+  private void grow() {
+    var grown = new long[elements.length * 2];
+    for (var i = 0; i < size; i++) {
+      grown[i] = elements[(head + i) & (elements.length - 1)];
+    }
+    elements = grown;
+    head = 0;
+  }
+}
@@ -0,0 +1,466 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Math.max;
+import static java.lang.String.format;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Intcode memory: a growable table of {@code long[]} pages for the addresses programs normally touch, plus a sparse
+ * overflow area for the few very high ones. Reads and writes never box.
+ * <p>
+ * Pages are shared copy-on-write between a memory and its forks, so forking costs one pass over the page table and
+ * every later write copies at most the page it lands on.
+ * <p>
+ * The same slow path tracks the pages written since the last {@link #drainDirtyPages()}: draining gives up write access
+ * to the pages without sharing them, so the next write to each takes the slow path once and marks it dirty again.
+ * <p>
+ * With an {@link OffHeapStore}, the addresses beyond the current page table go to the store instead of the heap. Such a
+ * memory can neither be forked nor drained.
+ * <p>
+ * A memory started from a {@link ProgramImage} also remembers the pages written since it was started or last
+ * {@link #restore(LongConsumer) restored}, so restoring the image only visits those.
+ */
+final class Memory {
+  static final class LimitExceededException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    LimitExceededException(final String message) {
+      super(message);
+    }
+  }
+
+  static final int PAGE_BITS = 10;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int INITIAL_PAGES = 4;
+  private static final int MAX_PAGES = 1 << (24 - PAGE_BITS);
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private int allocatedPages;
+  private long cellLimit = Long.MAX_VALUE;
+  private boolean[] clean;
+  private ProgramImage image;
+  private int maxPages = MAX_PAGES;
+  private boolean[] modified;
+  private OffHeapStore offHeap;
+  private Overflow overflow;
+  private boolean overflowShared;
+  private boolean[] owned;
+  private long[][] pages;
+  private int size;
+  private boolean untracked;
+
+  Memory(final long[] image) {
+    var pageCount = max(INITIAL_PAGES, (image.length + PAGE_SIZE - 1) >>> PAGE_BITS);
+    pages = new long[pageCount][];
+    owned = new boolean[pageCount];
+    clean = new boolean[pageCount];
+    modified = new boolean[pageCount];
+    for (var page = 0; page * PAGE_SIZE < image.length; page++) {
+      pages[page] = Arrays.copyOfRange(image, page * PAGE_SIZE, (page + 1) * PAGE_SIZE);
+      owned[page] = true;
+      allocatedPages++;
+    }
+    overflow = new Overflow();
+    size = image.length;
+  }
+
+  /**
+   * Starts from the pages of the image, shared until written: only the pages written are copied.
+   */
+  Memory(final ProgramImage image) {
+    var pageCount = max(INITIAL_PAGES, image.pageCount());
+    pages = new long[pageCount][];
+    owned = new boolean[pageCount];
+    clean = new boolean[pageCount];
+    modified = new boolean[pageCount];
+    for (var page = 0; page < image.pageCount(); page++) {
+      pages[page] = image.page(page);
+    }
+    allocatedPages = image.pageCount();
+    overflow = new Overflow();
+    size = image.length();
+    untracked = true;
+    this.image = image;
+  }
+
+  private Memory(final Memory other) {
+    pages = other.pages.clone();
+    owned = new boolean[pages.length];
+    clean = new boolean[pages.length];
+    image = other.image;
+    modified = other.modified.clone();
+    overflow = other.overflow;
+    overflowShared = true;
+    size = other.size;
+    untracked = true;
+    allocatedPages = other.allocatedPages;
+  }
+
+  /**
+   * @return a memory owning the given pages, all of them clean, and the given overflow cells as address/value pairs.
+   */
+  static Memory fromPages(final long[][] pages, final int size, final long[] overflowCells) {
+    var result = new Memory(new long[0]);
+    result.grow(pages.length - 1);
+    for (var page = 0; page < pages.length; page++) {
+      result.pages[page] = pages[page];
+      result.clean[page] = pages[page] != null;
+      result.allocatedPages += pages[page] != null ? 1 : 0;
+    }
+    for (var i = 0; i < overflowCells.length; i += 2) {
+      result.overflow.put(overflowCells[i], overflowCells[i + 1]);
+    }
+    result.size = size;
+    return result;
+  }
+
+  List<Long> asList() {
+    return new AbstractList<>() {
+      @Override
+      public Long get(final int index) {
+        return read(index);
+      }
+
+      @Override
+      public int size() {
+        var maxKey = max(overflow.maxKey(), offHeap == null ? -1L : offHeap.maxAddress());
+        return (int) Math.min(Integer.MAX_VALUE, max(size, maxKey + 1));
+      }
+    };
+  }
+
+  /**
+   * @return the number of cells backed by storage: whole pages, plus single cells in the overflow area.
+   */
+  long cells() {
+    return (long) allocatedPages * PAGE_SIZE + overflow.count + (offHeap == null ? 0L : offHeap.cells());
+  }
+
+  /**
+   * @return the indexes of the pages written since the last call, which become clean again.
+   */
+  int[] drainDirtyPages() {
+    checkState(offHeap == null, "off-heap cells are not tracked");
+    var count = 0;
+    for (var page = 0; page < pages.length; page++) {
+      if (isDirty(page)) {
+        count++;
+      }
+    }
+    var result = new int[count];
+    count = 0;
+    for (var page = 0; page < pages.length; page++) {
+      if (isDirty(page)) {
+        result[count++] = page;
+      }
+      if (owned[page]) {
+        owned[page] = false;
+        clean[page] = true;
+      }
+    }
+    untracked = false;
+    return result;
+  }
+
+  /**
+   * @return an independent memory sharing every page with this one until either side writes to it. Both sides report
+   * every page as dirty until their next drain.
+   */
+  Memory fork() {
+    checkState(offHeap == null, "off-heap memory cannot be forked");
+    Arrays.fill(owned, false);
+    Arrays.fill(clean, false);
+    untracked = true;
+    overflowShared = true;
+    return new Memory(this);
+  }
+
+  /**
+   * Makes any write that would take {@link #cells()} beyond the limit throw {@link LimitExceededException}, leaving the
+   * memory unchanged. Only writes allocating storage check it.
+   */
+  void limitCells(final long limit) {
+    cellLimit = limit;
+  }
+
+  /**
+   * @return the overflow cells, as address/value pairs.
+   */
+  long[] overflowCells() {
+    return overflow.cells();
+  }
+
+  /**
+   * @return the cells of a page, {@code null} if it was never written. Callers must not modify them.
+   */
+  long[] page(final int page) {
+    return page < pages.length ? pages[page] : null;
+  }
+
+  int pageCount() {
+    return pages.length;
+  }
+
+  long read(final long address) {
+    var page = address >>> PAGE_BITS;
+    if (address >= 0 && page < pages.length) {
+      var cells = pages[(int) page];
+      return cells == null ? 0L : cells[(int) address & PAGE_MASK];
+    }
+    checkAddress(address);
+    return offHeap != null && offHeap.covers(address) ? offHeap.read(address) : overflow.get(address);
+  }
+
+  /**
+   * Restores the image this memory was started from, in place: only the pages written since it was started or last
+   * restored are visited, and the pages it owns are overwritten rather than copied again. Every address whose value
+   * changes is passed to the consumer, so that code decoded from it can be dropped.
+   *
+   * @return false, leaving the memory unchanged, if it did not start from an image or has an off-heap store.
+   */
+  boolean restore(final LongConsumer changed) {
+    if (image == null || offHeap != null) {
+      return false;
+    }
+    for (var page = 0; page < pages.length; page++) {
+      if (!modified[page]) {
+        continue;
+      }
+      var original = page < image.pageCount() ? image.page(page) : null;
+      var cells = pages[page];
+      for (var i = 0; i < PAGE_SIZE; i++) {
+        var value = original == null ? 0L : original[i];
+        if (cells[i] != value) {
+          if (owned[page] || clean[page]) {
+            cells[i] = value;
+          }
+          changed.accept(((long) page << PAGE_BITS) + i);
+        }
+      }
+      if (owned[page] || clean[page]) {
+        owned[page] = false;
+        clean[page] = true;
+      } else {
+        // shared with a fork: the image's page, or none, takes its place
+        pages[page] = original;
+        allocatedPages -= original == null ? 1 : 0;
+      }
+      modified[page] = false;
+    }
+    if (overflow.count > 0) {
+      overflow = new Overflow();
+      overflowShared = false;
+    }
+    size = image.length();
+    untracked = true;
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Moves the addresses beyond the current page table, including the overflow cells they hold, to the store.
+   */
+  void useOffHeap(final OffHeapStore store) {
+    checkState(offHeap == null, "already off-heap");
+    offHeap = store;
+    maxPages = pages.length;
+    var cells = overflow.cells();
+    overflow = new Overflow();
+    overflowShared = false;
+    for (var i = 0; i < cells.length; i += 2) {
+      if (store.covers(cells[i])) {
+        store.write(cells[i], cells[i + 1]);
+      } else {
+        overflow.put(cells[i], cells[i + 1]);
+      }
+    }
+  }
+
+  OffHeapStore offHeap() {
+    return offHeap;
+  }
+
+  void write(final long address, final long value) {
+    var page = address >>> PAGE_BITS;
+    if (address >= 0 && page < pages.length && owned[(int) page]) {
+      pages[(int) page][(int) address & PAGE_MASK] = value;
+      if (address >= size) {
+        size = (int) address + 1;
+      }
+      return;
+    }
+    writeSlow(address, value);
+  }
+
+  static void checkAddress(final long address) {
+    if (address < 0) {
+      throw new IllegalStateException(format("Invalid access to negative address %d", address));
+    }
+  }
+
+  private void checkLimit(final int newCells) {
+    if (cells() + newCells > cellLimit) {
+      throw new LimitExceededException(format("Memory limit of %d cells exceeded", cellLimit));
+    }
+  }
+
+  private boolean isDirty(final int page) {
+    return owned[page] || untracked && pages[page] != null;
+  }
+
+  private void grow(final int page) {
+    var capacity = pages.length;
+    while (capacity <= page) {
+      capacity <<= 1;
+    }
+    capacity = Math.min(capacity, maxPages);
+    pages = Arrays.copyOf(pages, capacity);
+    owned = Arrays.copyOf(owned, capacity);
+    clean = Arrays.copyOf(clean, capacity);
+    modified = Arrays.copyOf(modified, capacity);
+  }
+
+  private void writeSlow(final long address, final long value) {
+    checkAddress(address);
+    if (address >= (long) maxPages * PAGE_SIZE && offHeap != null && offHeap.covers(address)) {
+      if (!offHeap.isAllocated(address)) {
+        checkLimit(OffHeapStore.PAGE_SIZE);
+      }
+      offHeap.write(address, value);
+      return;
+    }
+    if (address >= (long) maxPages * PAGE_SIZE) {
+      if (overflowShared) {
+        overflow = overflow.copy();
+        overflowShared = false;
+      }
+      if (!overflow.contains(address)) {
+        checkLimit(1);
+      }
+      overflow.put(address, value);
+      return;
+    }
+    var page = (int) (address >>> PAGE_BITS);
+    if (page >= pages.length) {
+      grow(page);
+    }
+    var cells = pages[page];
+    if (cells == null) {
+      checkLimit(PAGE_SIZE);
+      allocatedPages++;
+    }
+    if (!clean[page]) {
+      pages[page] = cells == null ? new long[PAGE_SIZE] : cells.clone();
+    }
+    clean[page] = false;
+    owned[page] = true;
+    modified[page] = true;
+    write(address, value);
+  }
+
+  /**
+   * Open addressing map from address to value, using {@code -1} (never a valid address) as the empty key.
+   */
+  private static final class Overflow {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private long maxKey = EMPTY;
+    private int count;
+    private long[] values;
+
+    Overflow() {
+      this(16);
+    }
+
+    private Overflow(final int capacity) {
+      keys = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      values = new long[capacity];
+    }
+
+    Overflow copy() {
+      var result = new Overflow(0);
+      result.keys = keys.clone();
+      result.values = values.clone();
+      result.count = count;
+      result.maxKey = maxKey;
+      return result;
+    }
+
+    long[] cells() {
+      var result = new long[count * 2];
+      var index = 0;
+      for (var slot = 0; slot < keys.length; slot++) {
+        if (keys[slot] != EMPTY) {
+          result[index++] = keys[slot];
+          result[index++] = values[slot];
+        }
+      }
+      return result;
+    }
+
+    boolean contains(final long key) {
+      return keys[slot(keys, key)] == key;
+    }
+
+    long get(final long key) {
+      var slot = slot(keys, key);
+      return keys[slot] == key ? values[slot] : 0L;
+    }
+
+    long maxKey() {
+      return maxKey;
+    }
+
+    void put(final long key, final long value) {
+      var slot = slot(keys, key);
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      maxKey = max(maxKey, key);
+      if (++count * 2 > keys.length) {
+        rehash();
+      }
+    }
+
+    /**
+     * Fibonacci hashing: the top bits of the 64-bit product depend on every bit of the key, so strided addresses spread
+     * over the table instead of piling up on the low bits.
+     */
+    private static int slot(final long[] keys, final long key) {
+      var mask = keys.length - 1;
+      var slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Integer.numberOfTrailingZeros(keys.length)));
+      while (keys[slot] != EMPTY && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void rehash() {
+      var oldKeys = keys;
+      var oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      Arrays.fill(keys, EMPTY);
+      values = new long[keys.length];
+      for (var i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          var slot = slot(keys, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,512 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A directed graph of computers: every output of a node is sent to the inbox of each of its successors. An inbox can
+ * have any number of producers, and can also be fed from outside before the network runs.
+ */
+final class Network {
+  enum Outcome {
+    /**
+     * Every node halted.
+     */
+    HALTED,
+    /**
+     * Some nodes are still waiting for input that nothing in the network can produce: a deadlock, or quiescence
+     * until more input is fed from outside.
+     */
+    QUIESCENT
+  }
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final int capacity;
+  private Throwable failure;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final List<Node> nodes = new ArrayList<>();
+  private Deque<Node> ready;
+  private boolean stalled;
+
+  Network() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity how many values an inbox holds before the nodes writing to it block.
+   */
+  Network(final int capacity) {
+    checkArgument(capacity > 0, "capacity should be positive");
+    this.capacity = capacity;
+  }
+
+  Node add(final Computer computer) {
+    var result = new Node(computer, nodes.size());
+    nodes.add(result);
+    return result;
+  }
+
+  void connect(final Node from, final Node to) {
+    checkArgument(nodes.contains(from) && nodes.contains(to), "nodes should belong to this network");
+    from.successors.add(to);
+  }
+
+  void feed(final Node node, final long... values) {
+    lock.lock();
+    try {
+      for (var value : values) {
+        node.inbox.values.accept(value);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  List<Node> nodes() {
+    return nodes;
+  }
+
+  /**
+   * Runs every node on its own thread, blocking on its inbox when it needs input, until all nodes halted or the network
+   * can no longer make progress.
+   */
+  Outcome runConcurrently() throws InterruptedException {
+    prepare();
+    List<Thread> threads = new ArrayList<>(nodes.size());
+    for (var node : nodes) {
+      var thread = new Thread(node::runConcurrently, "intcode-node-" + node.id);
+      thread.setDaemon(true);
+      threads.add(thread);
+    }
+    threads.forEach(Thread::start);
+    try {
+      for (var thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      threads.forEach(Thread::interrupt);
+      throw e;
+    } finally {
+      nodes.forEach(Node::detach);
+    }
+    if (failure != null) {
+      throw new IllegalStateException("A node of the network failed", failure);
+    }
+    return nodes.stream().allMatch(Node::isHalted) ? Outcome.HALTED : Outcome.QUIESCENT;
+  }
+
+  Outcome runDeterministically() {
+    return runDeterministically(Long.MAX_VALUE);
+  }
+
+  /**
+   * Runs every node on the calling thread. Nodes are resumed in a fixed order from a ready queue, and a node waiting for
+   * input only joins the queue again once a value reaches its inbox, so the same network always produces the same
+   * trace. Inboxes are unbounded in this mode.
+   *
+   * @param timeSlice how many instructions a node may run before going back to the end of the queue.
+   */
+  Outcome runDeterministically(final long timeSlice) {
+    checkArgument(timeSlice > 0, "timeSlice should be positive");
+    prepare();
+    ready = new ArrayDeque<>(nodes.size());
+    try {
+      nodes.stream().filter(it -> !it.halted).forEach(Node::enqueue);
+      while (!ready.isEmpty()) {
+        var node = ready.poll();
+        node.queued = false;
+        var status = node.computer.withInput(node.inbox).withOutput(node::send).run(timeSlice);
+        switch (status) {
+          case HALTED -> node.finish(status);
+          case YIELDED -> node.enqueue();
+          case AWAITING_INPUT -> {
+            if (node.inbox.values.hasNext()) {
+              node.enqueue();
+            }
+          }
+        }
+      }
+    } finally {
+      ready = null;
+      nodes.forEach(Node::detach);
+    }
+    return nodes.stream().allMatch(Node::isHalted) ? Outcome.HALTED : Outcome.QUIESCENT;
+  }
+
+  private void checkStalled() {
+    if (stalled) {
+      return;
+    }
+    for (var node : nodes) {
+      if (!node.finished && !node.isStuck()) {
+        return;
+      }
+    }
+    stalled = true;
+    nodes.forEach(it -> it.inbox.signalAll());
+  }
+
+  private void prepare() {
+    failure = null;
+    stalled = false;
+    for (var node : nodes) {
+      node.finished = false;
+      node.queued = false;
+      node.halted = !node.computer.isRunning();
+      node.readingFrom = null;
+      node.writingTo = null;
+      node.inbox.consumerGone = false;
+      node.inbox.producers = 0;
+    }
+    nodes.forEach(node -> node.successors.forEach(it -> it.inbox.producers++));
+  }
+
+  /**
+   * A computer in the network, with its inbox and the last value it sent.
+   */
+  final class Node {
+    private final Computer computer;
+    private boolean finished;
+    private boolean halted;
+    private final int id;
+    private final Inbox inbox = new Inbox(this);
+    private Inbox readingFrom;
+    private boolean queued;
+    private boolean sent;
+    private long lastSent;
+    private LongRingBuffer log;
+    private final List<Node> successors = new ArrayList<>();
+    private Inbox writingTo;
+
+    private Node(final Computer computer, final int id) {
+      this.computer = computer;
+      this.id = id;
+    }
+
+    Computer computer() {
+      return computer;
+    }
+
+    boolean isHalted() {
+      return halted;
+    }
+
+    /**
+     * @return the last value this node sent since the network was built, empty if none.
+     */
+    OptionalLong lastSent() {
+      return sent ? OptionalLong.of(lastSent) : OptionalLong.empty();
+    }
+
+    /**
+     * Keeps every value this node sends from now on, for {@link #sent()}.
+     */
+    Node recordSent() {
+      log = new LongRingBuffer();
+      return this;
+    }
+
+    /**
+     * @return every value this node sent since {@link #recordSent()}.
+     */
+    LongRingBuffer sent() {
+      checkState(log != null, "the values sent are not recorded");
+      return log;
+    }
+
+    private void detach() {
+      computer.withInput(null).withOutput(null);
+    }
+
+    private void enqueue() {
+      if (!queued && !finished) {
+        queued = true;
+        ready.add(this);
+      }
+    }
+
+    private void finish(final Computer.Status status) {
+      lock.lock();
+      try {
+        halted = status == Computer.Status.HALTED;
+        finished = true;
+        inbox.consumerGone = true;
+        inbox.signalAll();
+        for (var successor : successors) {
+          successor.inbox.producers--;
+          successor.inbox.signalAll();
+        }
+        checkStalled();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean isStuck() {
+      return readingFrom != null && !readingFrom.values.hasNext()
+             || writingTo != null && writingTo.values.size() >= capacity && !writingTo.consumerGone;
+    }
+
+    private void runConcurrently() {
+      var status = Computer.Status.HALTED;
+      try {
+        if (!halted) {
+          status = computer.withInput(inbox).withOutput(this::send).run();
+        }
+      } catch (final Stalled e) {
+        // the output is sent again when the node resumes: it does not count yet
+        computer.moveTo(computer.getProgramCounter(), computer.getBase(), computer.getInstructionCount() - 1);
+        status = Computer.Status.AWAITING_INPUT;
+      } catch (RuntimeException | Error e) {
+        lock.lock();
+        try {
+          if (failure == null) {
+            failure = e;
+          }
+          stalled = true;
+          nodes.forEach(it -> it.inbox.signalAll());
+        } finally {
+          lock.unlock();
+        }
+        status = Computer.Status.AWAITING_INPUT;
+      } finally {
+        finish(status);
+      }
+    }
+
+    /**
+     * Waits until every successor has room, so that the value reaches all of them or, if the network stalls, none.
+     */
+    private void send(final long value) {
+      lock.lock();
+      try {
+        if (ready == null) {
+          awaitRoom();
+        }
+        sent = true;
+        lastSent = value;
+        if (log != null) {
+          log.accept(value);
+        }
+        for (var successor : successors) {
+          successor.inbox.put(value);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void awaitRoom() {
+      for (var full = fullSuccessor(); !stalled && full != null; full = fullSuccessor()) {
+        writingTo = full.inbox;
+        full.inbox.await(full.inbox.notFull);
+        writingTo = null;
+      }
+      if (stalled) {
+        throw new Stalled();
+      }
+    }
+
+    private Node fullSuccessor() {
+      for (var successor : successors) {
+        if (successor.inbox.values.size() >= capacity && !successor.inbox.consumerGone) {
+          return successor;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Thrown out of a node blocked on a full inbox once the network stalled, to end its run as quiescent.
+   */
+  private static final class Stalled extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Stalled() {
+      super(null, null, false, false);
+    }
+  }
+
+  /**
+   * Bounded channel guarded by the network lock, so that deadlock detection sees a consistent state.
+   */
+  private final class Inbox implements InputPort {
+    private boolean consumerGone;
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Node owner;
+    private int producers;
+    private final LongRingBuffer values = new LongRingBuffer();
+
+    Inbox(final Node owner) {
+      this.owner = owner;
+    }
+
+    @Override
+    public long getAsLong() {
+      lock.lock();
+      try {
+        checkState(values.hasNext(), "inbox is empty");
+        var result = values.getAsLong();
+        notFull.signal();
+        return result;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (ready != null) {
+        return values.hasNext();
+      }
+      lock.lock();
+      try {
+        while (!values.hasNext() && producers > 0 && !stalled) {
+          owner.readingFrom = this;
+          await(notEmpty);
+          owner.readingFrom = null;
+        }
+        return values.hasNext() && !stalled;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void await(final Condition condition) {
+      checkStalled();
+      try {
+        if (!stalled) {
+          condition.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stalled = true;
+        nodes.forEach(it -> it.inbox.signalAll());
+      }
+    }
+
+    private void put(final long value) {
+      if (consumerGone) {
+        return;
+      }
+      values.accept(value);
+      if (ready != null) {
+        owner.enqueue();
+      } else {
+        notEmpty.signal();
+      }
+    }
+
+    private void signalAll() {
+      notEmpty.signalAll();
+      notFull.signalAll();
+    }
+  }
+
+  static class Test {
+    private static final String DOUBLER = "3,100,1002,100,2,100,4,100,1105,1,0";
+    private static final String ECHO = "3,100,4,100,1105,1,0";
+
+    @org.junit.jupiter.api.Test
+    void runConcurrently_fanOutAndIn() throws InterruptedException {
+      var network = new Network(1);
+      var source = network.add(Computer.parse("104,1,104,2,104,3,99"));
+      var left = network.add(Computer.parse(DOUBLER)).recordSent();
+      var right = network.add(Computer.parse(DOUBLER));
+      var sink = network.add(Computer.parse(ECHO)).recordSent();
+      network.connect(source, left);
+      network.connect(source, right);
+      network.connect(left, sink);
+      network.connect(right, sink);
+
+      assertThat(network.runConcurrently()).isEqualTo(Outcome.QUIESCENT);
+      assertThat(source.isHalted()).isTrue();
+      assertThat(left.sent().toArray()).containsExactly(2L, 4L, 6L);
+      assertThat(sink.sent().toArray()).hasSize(6).containsOnly(2L, 4L, 6L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void runConcurrently_detectsDeadlock() throws InterruptedException {
+      var network = new Network();
+      var first = network.add(Computer.parse(ECHO));
+      var second = network.add(Computer.parse(ECHO));
+      network.connect(first, second);
+      network.connect(second, first);
+
+      assertThat(network.runConcurrently()).isEqualTo(Outcome.QUIESCENT);
+      assertThat(first.lastSent()).isEmpty();
+    }
+
+    @org.junit.jupiter.api.Test
+    void runConcurrently_detectsDeadlockOnFullInboxes() throws InterruptedException {
+      // both nodes output twice before reading: with room for one value, each blocks on the other's full inbox
+      var program = "104,1,104,2,3,100,1105,1,4";
+      var network = new Network(1);
+      var first = network.add(Computer.parse(program));
+      var second = network.add(Computer.parse(program));
+      network.connect(first, second);
+      network.connect(second, first);
+
+      assertThat(network.runConcurrently()).isEqualTo(Outcome.QUIESCENT);
+      assertThat(first.lastSent()).hasValue(1L);
+      assertThat(second.lastSent()).hasValue(1L);
+      assertThat(first.computer().getInstructionCount()).isEqualTo(1);
+    }
+
+    @org.junit.jupiter.api.Test
+    void runDeterministically_fanOutAndIn() {
+      var network = new Network();
+      var source = network.add(Computer.parse("104,1,104,2,104,3,99"));
+      var left = network.add(Computer.parse(DOUBLER)).recordSent();
+      var right = network.add(Computer.parse("3,100,1002,100,3,100,4,100,1105,1,0"));
+      var sink = network.add(Computer.parse(ECHO)).recordSent();
+      network.connect(source, left);
+      network.connect(source, right);
+      network.connect(left, sink);
+      network.connect(right, sink);
+
+      assertThat(network.runDeterministically()).isEqualTo(Outcome.QUIESCENT);
+      assertThat(sink.sent().toArray()).containsExactly(2L, 4L, 6L, 3L, 6L, 9L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void runDeterministically_interleavesTimeSlices() {
+      var network = new Network();
+      var source = network.add(Computer.parse("104,1,104,2,104,3,99"));
+      var left = network.add(Computer.parse(DOUBLER)).recordSent();
+      var right = network.add(Computer.parse("3,100,1002,100,3,100,4,100,1105,1,0"));
+      var sink = network.add(Computer.parse(ECHO)).recordSent();
+      network.connect(source, left);
+      network.connect(source, right);
+      network.connect(left, sink);
+      network.connect(right, sink);
+
+      assertThat(network.runDeterministically(2)).isEqualTo(Outcome.QUIESCENT);
+      assertThat(sink.sent().toArray()).containsExactly(2L, 3L, 4L, 6L, 6L, 9L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void runDeterministically_detectsDeadlock() {
+      var network = new Network();
+      var first = network.add(Computer.parse(ECHO));
+      var second = network.add(Computer.parse(ECHO));
+      network.connect(first, second);
+      network.connect(second, first);
+
+      assertThat(network.runDeterministically()).isEqualTo(Outcome.QUIESCENT);
+      assertThat(first.isHalted()).isFalse();
+    }
+  }
+}
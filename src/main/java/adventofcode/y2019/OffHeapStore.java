@@ -0,0 +1,198 @@
+package adventofcode.y2019;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory cells kept outside the Java heap, for programs that address hundreds of millions of cells. Cells live in pages
+ * of {@link #PAGE_SIZE} cells, allocated on the first write to them: direct buffers, or regions mapped from a sparse
+ * file, so the file only takes disk space for the pages written. The heap only holds the page table.
+ * <p>
+ * Attached to a computer with {@link Computer#withOffHeapMemory(OffHeapStore)}, it takes every address beyond the
+ * pages the memory already has, up to {@link #MAX_ADDRESS}.
+ * <p>
+ * The JDK has no supported way to free a direct buffer or unmap a region: {@link #clear()} and {@link #close()} only
+ * drop the references to the pages, and their native memory or mapping is released when the garbage collector
+ * reclaims the buffers. The heap side of a page is small, so that may take a while: direct allocations past
+ * {@code -XX:MaxDirectMemorySize} force a collection, but mapped pages are not counted against any limit.
+ */
+final class OffHeapStore implements Closeable {
+  static final long MAX_ADDRESS = (1L << 36) - 1;
+  static final int PAGE_BITS = 16;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final long PAGE_BYTES = (long) PAGE_SIZE * Long.BYTES;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private int allocatedPages;
+  private final FileChannel file;
+  private long maxAddress = -1L;
+  private LongBuffer[] pages = new LongBuffer[16];
+
+  private OffHeapStore(final FileChannel file) {
+    this.file = file;
+  }
+
+  /**
+   * @return a store of direct buffers, released once the store and its pages are garbage collected.
+   */
+  static OffHeapStore direct() {
+    return new OffHeapStore(null);
+  }
+
+  /**
+   * @return a store mapped from a new sparse file, deleted when the store is closed (right away on some systems, where
+   * it stays reachable through the store only).
+   */
+  static OffHeapStore mapped(final Path file) throws IOException {
+    return new OffHeapStore(FileChannel.open(file,
+                                             StandardOpenOption.CREATE_NEW,
+                                             StandardOpenOption.SPARSE,
+                                             StandardOpenOption.READ,
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.DELETE_ON_CLOSE));
+  }
+
+  /**
+   * @return the number of cells backed by a page.
+   */
+  long cells() {
+    return (long) allocatedPages * PAGE_SIZE;
+  }
+
+  /**
+   * Drops every page: all cells read 0 again. A mapped store truncates its file; the memory of direct pages is released
+   * by the garbage collector.
+   */
+  void clear() {
+    pages = new LongBuffer[16];
+    allocatedPages = 0;
+    maxAddress = -1L;
+    if (file != null) {
+      try {
+        file.truncate(0);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pages = new LongBuffer[0];
+    allocatedPages = 0;
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  boolean covers(final long address) {
+    return address >= 0 && address <= MAX_ADDRESS;
+  }
+
+  /**
+   * @return true if the page holding the address is allocated, so writing to it allocates nothing.
+   */
+  boolean isAllocated(final long address) {
+    var page = address >>> PAGE_BITS;
+    return page < pages.length && pages[(int) page] != null;
+  }
+
+  long maxAddress() {
+    return maxAddress;
+  }
+
+  long read(final long address) {
+    var page = address >>> PAGE_BITS;
+    if (page >= pages.length || pages[(int) page] == null) {
+      return 0L;
+    }
+    return pages[(int) page].get((int) address & PAGE_MASK);
+  }
+
+  void write(final long address, final long value) {
+    if (!covers(address)) {
+      throw new IllegalStateException(format("Address %d is beyond the off-heap store", address));
+    }
+    var page = (int) (address >>> PAGE_BITS);
+    if (page >= pages.length) {
+      pages = Arrays.copyOf(pages, Math.max(pages.length * 2, page + 1));
+    }
+    if (pages[page] == null) {
+      pages[page] = allocate(page);
+      allocatedPages++;
+    }
+    pages[page].put((int) address & PAGE_MASK, value);
+    maxAddress = Math.max(maxAddress, address);
+  }
+
+  private LongBuffer allocate(final int page) {
+    if (file == null) {
+      return ByteBuffer.allocateDirect((int) PAGE_BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+    try {
+      return file.map(FileChannel.MapMode.READ_WRITE, page * PAGE_BYTES, PAGE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asLongBuffer();
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static class Test {
+    // stores 7 + 8 at 300 million, prints it, then reads 900 million, never written
+    private static final String FAR = "1101,7,8,300000000,4,300000000,4,900000000,99";
+
+    @org.junit.jupiter.api.Test
+    void direct_allocatesPagesLazily() throws IOException {
+      try (var store = OffHeapStore.direct()) {
+        var computer = Computer.parse(FAR).withOffHeapMemory(store);
+
+        assertThat(computer.execute()).containsExactly(15L, 0L);
+        assertThat(store.cells()).isEqualTo(PAGE_SIZE);
+        assertThat(computer.memory().cells()).isEqualTo(Memory.PAGE_SIZE + PAGE_SIZE);
+
+        computer.reset();
+        assertThat(computer.peek(300_000_000L)).isZero();
+        assertThat(computer.execute()).containsExactly(15L, 0L);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void mapped_writesASparseFile() throws IOException {
+      var directory = Files.createTempDirectory("offheap");
+      var file = directory.resolve("cells");
+      try (var store = OffHeapStore.mapped(file)) {
+        var computer = Computer.parse(FAR).withOffHeapMemory(store);
+
+        assertThat(computer.execute()).containsExactly(15L, 0L);
+        assertThat(store.file.size()).isGreaterThan(300_000_000L * Long.BYTES);
+        assertThat(store.cells()).isEqualTo(PAGE_SIZE);
+      } finally {
+        Files.deleteIfExists(file);
+        Files.delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void fork_isNotSupported() throws IOException {
+      try (var store = OffHeapStore.direct()) {
+        var computer = Computer.parse(FAR).withOffHeapMemory(store);
+
+        assertThatThrownBy(computer::fork).isInstanceOf(IllegalStateException.class);
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package adventofcode.y2019;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.ParamMode;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Counts executed instructions per opcode, per program counter and per parameter mode, and tracks relative base
+ * changes. Attach it with {@link Computer#withListener(ExecutionListener)}.
+ * <p>
+ * Per address counts stop at {@link #MAX_CAPACITY}: instructions beyond it are only counted in the totals.
+ */
+final class Profiler implements ExecutionListener {
+  private static final int HOT_SPOTS = 20;
+  private static final int MAX_CAPACITY = 1 << 24;
+
+  @Getter
+  private long baseChanges;
+  private long maxBase;
+  private long minBase;
+  private String[] mnemonics = new String[1024];
+  private final long[] modes = new long[ParamMode.values().length];
+  private final long[] opCodes = new long[Instruction.HALT + 1];
+  private long[] programCounters = new long[1024];
+  @Getter
+  private long total;
+
+  long count(final int opCode) {
+    return opCodes[opCode];
+  }
+
+  long count(final ParamMode mode) {
+    return modes[mode.ordinal()];
+  }
+
+  long countAt(final long programCounter) {
+    return programCounter < programCounters.length ? programCounters[(int) programCounter] : 0L;
+  }
+
+  /**
+   * @return one {@code intcode;<mnemonic>;pc <address> <count>} line per executed address, the collapsed-stack format
+   * read by flamegraph.pl and speedscope.
+   */
+  String collapsedStacks() {
+    var result = new StringBuilder();
+    for (var pc = 0; pc < programCounters.length; pc++) {
+      if (programCounters[pc] > 0) {
+        result.append(format("intcode;%s;pc %d %d%n", mnemonics[pc], pc, programCounters[pc]));
+      }
+    }
+    return result.toString();
+  }
+
+  @Override
+  public void onBaseChange(final long base) {
+    if (baseChanges++ == 0) {
+      minBase = base;
+      maxBase = base;
+    } else {
+      minBase = Math.min(minBase, base);
+      maxBase = Math.max(maxBase, base);
+    }
+  }
+
+  @Override
+  public void onInstruction(final long programCounter, final Instruction instruction) {
+    total++;
+    opCodes[instruction.opCode]++;
+    countMode(instruction.mode1);
+    countMode(instruction.mode2);
+    countMode(instruction.mode3);
+    if (programCounter >= programCounters.length) {
+      if (programCounter >= MAX_CAPACITY) {
+        return;
+      }
+      grow((int) programCounter);
+    }
+    programCounters[(int) programCounter]++;
+    mnemonics[(int) programCounter] = Instruction.mnemonic(instruction.opCode);
+  }
+
+  String report() {
+    var result = new StringBuilder(format("%,d instructions%n%nopcode%n", total));
+    for (var opCode = 0; opCode < opCodes.length; opCode++) {
+      if (opCodes[opCode] > 0) {
+        result.append(line(Instruction.mnemonic(opCode), opCodes[opCode], total));
+      }
+    }
+    var parameters = Arrays.stream(modes).sum();
+    result.append(format("%nmode%n"));
+    for (var mode : ParamMode.values()) {
+      result.append(line(mode.name().toLowerCase(), modes[mode.ordinal()], parameters));
+    }
+    result.append(format("%nrelative base: %,d changes", baseChanges));
+    if (baseChanges > 0) {
+      result.append(format(", range [%d, %d]", minBase, maxBase));
+    }
+    result.append(format("%n%nhot pcs%n"));
+    IntStream.range(0, programCounters.length)
+      .filter(pc -> programCounters[pc] > 0)
+      .boxed()
+      .sorted(Comparator.comparingLong((Integer pc) -> programCounters[pc]).reversed())
+      .limit(HOT_SPOTS)
+      .forEach(pc -> result.append(line(format("%6d %s", pc, mnemonics[pc]), programCounters[pc], total)));
+    return result.toString();
+  }
+
+  private static String line(final String label, final long count, final long total) {
+    return format("  %-12s %,15d %6.2f%%%n", label, count, total == 0 ? 0.0 : 100.0 * count / total);
+  }
+
+  private void countMode(final ParamMode mode) {
+    if (mode != null) {
+      modes[mode.ordinal()]++;
+    }
+  }
+
+  private void grow(final int programCounter) {
+    var capacity = programCounters.length;
+    while (capacity <= programCounter) {
+      capacity <<= 1;
+    }
+    programCounters = Arrays.copyOf(programCounters, capacity);
+    mnemonics = Arrays.copyOf(mnemonics, capacity);
+  }
+
+  static class Test {
+    private static final String QUINE = "109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99";
+
+    @org.junit.jupiter.api.Test
+    void profile_countsEveryInstruction() {
+      var profiler = new Profiler();
+      var computer = Computer.parse(QUINE).withListener(profiler);
+
+      computer.execute();
+
+      assertThat(profiler.getTotal()).isEqualTo(computer.getInstructionCount());
+      assertThat(profiler.count(Instruction.OUTPUT)).isEqualTo(16);
+      assertThat(profiler.count(Instruction.ADJUST_BASE)).isEqualTo(16);
+      assertThat(profiler.count(Instruction.HALT)).isEqualTo(1);
+      assertThat(profiler.countAt(2)).isEqualTo(16);
+      assertThat(profiler.count(ParamMode.RELATIVE)).isEqualTo(16);
+      assertThat(profiler.getBaseChanges()).isEqualTo(16);
+    }
+
+    @org.junit.jupiter.api.Test
+    void profile_doesNotChangeResults() {
+      assertThat(Computer.parse(QUINE).withListener(new Profiler()).execute())
+        .isEqualTo(Computer.parse(QUINE).execute());
+    }
+
+    @org.junit.jupiter.api.Test
+    void collapsedStacks_oneLinePerAddress() {
+      var profiler = new Profiler();
+      Computer.parse(QUINE).withListener(profiler).execute();
+
+      assertThat(profiler.collapsedStacks().lines())
+        .contains("intcode;arb;pc 0 16", "intcode;out;pc 2 16", "intcode;hlt;pc 15 1");
+      assertThat(profiler.report()).contains("relative base: 16 changes, range [1, 16]");
+    }
+
+    @org.junit.jupiter.api.Test
+    void onInstruction_ignoresAddressesPastTheCapacity() {
+      var profiler = new Profiler();
+      var halt = Instruction.decode(address -> Instruction.HALT, 0);
+      profiler.onInstruction(1L << 30, halt);
+      profiler.onInstruction(Long.MAX_VALUE, halt);
+
+      assertThat(profiler.getTotal()).isEqualTo(2);
+      assertThat(profiler.countAt(1L << 30)).isZero();
+      assertThat(profiler.collapsedStacks()).isEmpty();
+    }
+  }
+}
@@ -0,0 +1,407 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Computer.ParamMode.IMMEDIATE;
+import static adventofcode.y2019.Computer.ParamMode.POSITION;
+import static adventofcode.y2019.Instruction.HALT;
+import static adventofcode.y2019.Instruction.JUMP_IF_FALSE;
+import static adventofcode.y2019.Instruction.JUMP_IF_TRUE;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import adventofcode.y2019.Computer.ParamMode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static structure of an Intcode image: the instructions reachable from address 0, their basic blocks and control-flow
+ * graph, and the cells written through position-mode parameters. Writes through relative-mode parameters and jumps
+ * through memory cannot be resolved statically; they are reported rather than guessed.
+ * <p>
+ * Every pass visits each cell a bounded number of times, so analysis is linear in the size of the image.
+ */
+final class ProgramAnalysis {
+  private static final byte CODE = 1;
+  private static final byte START = 2;
+  private static final byte LEADER = 4;
+  private static final byte WRITTEN = 8;
+  private static final byte INVALID = 16;
+
+  @Getter
+  private final List<Block> blocks = new ArrayList<>();
+  @Getter
+  private boolean dynamicWrites;
+  private final byte[] flags;
+  private final long[] image;
+  @Getter
+  private final List<Long> indirectJumps = new ArrayList<>();
+  private long[] starts;
+
+  private ProgramAnalysis(final long[] image) {
+    this.image = image;
+    flags = new byte[image.length];
+    traverse();
+    buildBlocks();
+  }
+
+  static ProgramAnalysis of(final long[] image) {
+    return new ProgramAnalysis(image);
+  }
+
+  static ProgramAnalysis parse(final String program) {
+    return of(ImageParser.parse(program));
+  }
+
+  /**
+   * @return the block starting at the given address, or {@code null} if none does.
+   */
+  Block blockAt(final long address) {
+    var index = Arrays.binarySearch(starts, address);
+    return index < 0 ? null : blocks.get(index);
+  }
+
+  /**
+   * One line per reachable instruction, blocks separated by a blank line, and unreachable cells as {@code .data}.
+   * Position-mode parameters read {@code [12]}, relative-mode ones {@code [rb+12]} and immediate ones {@code 12}.
+   */
+  String disassemble() {
+    var result = new StringBuilder();
+    var address = 0;
+    while (address < image.length) {
+      if (is(address, START)) {
+        if (is(address, LEADER) && address > 0) {
+          result.append(System.lineSeparator());
+        }
+        result.append(format("%6d  %s%n", address, instructionText(address)));
+        address += is(address, INVALID) ? 1 : decode(address).length;
+        continue;
+      }
+      var end = address;
+      while (end < image.length && end - address < 8 && !is(end, START)) {
+        end++;
+      }
+      var values = new StringBuilder();
+      for (var cell = address; cell < end; cell++) {
+        values.append(cell > address ? ", " : "").append(image[cell]);
+      }
+      result.append(format("%6d  .data %s%n", address, values));
+      address = end;
+    }
+    return result.toString();
+  }
+
+  boolean isCode(final long address) {
+    return is(address, CODE);
+  }
+
+  boolean isInstruction(final long address) {
+    return is(address, START) && !is(address, INVALID);
+  }
+
+  /**
+   * @return whether a reachable instruction writes, through a position-mode parameter, a cell that is also part of a
+   * reachable instruction.
+   */
+  boolean isSelfModifying() {
+    for (var flag : flags) {
+      if ((flag & (CODE | WRITTEN)) == (CODE | WRITTEN)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return whether the cell is code that no instruction writes statically. Code is only known to be constant when
+   * there are also no {@link #isDynamicWrites() dynamic writes}.
+   */
+  boolean isStable(final long address) {
+    return is(address, CODE) && !is(address, WRITTEN);
+  }
+
+  boolean isWritten(final long address) {
+    return is(address, WRITTEN);
+  }
+
+  private static ParamMode mode(final Instruction instruction, final int index) {
+    return switch (index) {
+      case 1 -> instruction.mode1;
+      case 2 -> instruction.mode2;
+      default -> instruction.mode3;
+    };
+  }
+
+  private static long operand(final Instruction instruction, final int index) {
+    return switch (index) {
+      case 1 -> instruction.operand1;
+      case 2 -> instruction.operand2;
+      default -> instruction.operand3;
+    };
+  }
+
+  private void buildBlocks() {
+    var blockStarts = new long[16];
+    for (var leader = 0; leader < image.length; leader++) {
+      if (!is(leader, LEADER) || !is(leader, START)) {
+        continue;
+      }
+      var address = leader;
+      long[] successors;
+      while (true) {
+        if (is(address, INVALID)) {
+          successors = new long[0];
+          address++;
+          break;
+        }
+        var instruction = decode(address);
+        var opCode = instruction.opCode;
+        var next = address + instruction.length;
+        if (opCode == HALT) {
+          successors = new long[0];
+          address = next;
+          break;
+        }
+        if (opCode == JUMP_IF_TRUE || opCode == JUMP_IF_FALSE) {
+          successors = jumpSuccessors(instruction, next);
+          address = next;
+          break;
+        }
+        address = next;
+        if (address >= image.length || is(address, LEADER)) {
+          successors = address < image.length ? new long[] {address} : new long[0];
+          break;
+        }
+      }
+      if (blocks.size() == blockStarts.length) {
+        blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+      }
+      blockStarts[blocks.size()] = leader;
+      blocks.add(new Block(leader, address, successors));
+    }
+    starts = Arrays.copyOf(blockStarts, blocks.size());
+  }
+
+  private String instructionText(final int address) {
+    if (is(address, INVALID)) {
+      return format("??? %d", image[address]);
+    }
+    var instruction = decode(address);
+    var text = new StringBuilder(Instruction.mnemonic(instruction.opCode));
+    for (var index = 1; index < instruction.length; index++) {
+      var operand = operand(instruction, index);
+      text.append(index == 1 ? " " : ", ").append(switch (mode(instruction, index)) {
+        case POSITION -> format("[%d]", operand);
+        case IMMEDIATE -> Long.toString(operand);
+        case RELATIVE -> format("[rb%+d]", operand);
+      });
+    }
+    for (var cell = address; cell < address + instruction.length; cell++) {
+      if (is(cell, WRITTEN)) {
+        return text.append("  ; modified").toString();
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * @return the instruction at the given address, or {@code null} if the cells there do not decode to a valid
+   * instruction that fits in the image.
+   */
+  private Instruction decode(final int address) {
+    try {
+      var instruction = Instruction.decode(cell -> cell < image.length ? image[(int) cell] : 0L, address);
+      return address + instruction.length <= image.length ? instruction : null;
+    } catch (final IllegalStateException e) {
+      return null;
+    }
+  }
+
+  private boolean is(final long address, final byte flag) {
+    return address >= 0 && address < flags.length && (flags[(int) address] & flag) != 0;
+  }
+
+  /**
+   * @return the statically known successors of a jump: a constant condition keeps only one edge, a target read from
+   * memory is taken from the image and also reported as indirect, a relative target is left out.
+   */
+  private long[] jumpSuccessors(final Instruction jump, final int next) {
+    var conditionKnown = jump.mode1 == IMMEDIATE;
+    var jumps = !conditionKnown || (jump.operand1 != 0) == (jump.opCode == JUMP_IF_TRUE);
+    var fallsThrough = !conditionKnown || !jumps;
+    var target = target(jump);
+    var result = new long[(jumps && target >= 0 ? 1 : 0) + (fallsThrough && next < image.length ? 1 : 0)];
+    var index = 0;
+    if (jumps && target >= 0) {
+      result[index++] = target;
+    }
+    if (fallsThrough && next < image.length) {
+      result[index] = next;
+    }
+    return result;
+  }
+
+  private void mark(final long address, final byte flag) {
+    if (address >= 0 && address < flags.length) {
+      flags[(int) address] |= flag;
+    }
+  }
+
+  /**
+   * @return the jump target if it is known statically, -1 otherwise.
+   */
+  private long target(final Instruction jump) {
+    var operand = jump.operand2;
+    return switch (jump.mode2) {
+      case IMMEDIATE -> operand;
+      case POSITION -> operand >= 0 && operand < image.length ? image[(int) operand] : -1;
+      case RELATIVE -> -1;
+    };
+  }
+
+  private void traverse() {
+    var pending = new int[16];
+    var size = 0;
+    if (image.length > 0) {
+      pending[size++] = 0;
+      mark(0, LEADER);
+    }
+    while (size > 0) {
+      var address = pending[--size];
+      while (address < image.length) {
+        if (is(address, START)) {
+          mark(address, LEADER);
+          break;
+        }
+        var instruction = decode(address);
+        if (instruction == null) {
+          mark(address, (byte) (START | INVALID | CODE));
+          break;
+        }
+        var opCode = instruction.opCode;
+        var length = instruction.length;
+        var writesTo = Instruction.writesTo(opCode);
+        mark(address, START);
+        for (var cell = address; cell < address + length; cell++) {
+          mark(cell, CODE);
+        }
+        if (writesTo > 0) {
+          if (mode(instruction, writesTo) == POSITION) {
+            mark(operand(instruction, writesTo), WRITTEN);
+          } else {
+            dynamicWrites = true;
+          }
+        }
+        if (opCode == HALT) {
+          break;
+        }
+        if (opCode == JUMP_IF_TRUE || opCode == JUMP_IF_FALSE) {
+          if (instruction.mode2 != IMMEDIATE) {
+            indirectJumps.add((long) address);
+          }
+          var successors = jumpSuccessors(instruction, address + length);
+          if (size + successors.length > pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2 + successors.length);
+          }
+          for (var successor : successors) {
+            if (successor < image.length) {
+              mark(successor, LEADER);
+              pending[size++] = (int) successor;
+            }
+          }
+          break;
+        }
+        address += length;
+      }
+    }
+  }
+
+  /**
+   * A maximal run of instructions entered only at its start, and left only at its end.
+   */
+  @Getter
+  static final class Block {
+    private final long end;
+    private final long start;
+    private final long[] successors;
+
+    private Block(final long start, final long end, final long[] successors) {
+      this.start = start;
+      this.end = end;
+      this.successors = successors;
+    }
+
+    @Override
+    public String toString() {
+      return format("[%d, %d) -> %s", start, end, Arrays.toString(successors));
+    }
+  }
+
+  static class Test {
+    private static final String COMPARE_TO_8 =
+      "3,21,1008,21,8,20,1005,20,22,107,8,21,20,1006,20,31,1106,0,36,98,0,0,1002,21,125,20,4,20,1105,1,46,104,999,1105,1,46,1101,1000,1,20,4,20,1105,1,46,98,99";
+
+    @org.junit.jupiter.api.Test
+    void blocks_followControlFlow() {
+      var analysis = ProgramAnalysis.parse(COMPARE_TO_8);
+
+      assertThat(analysis.getBlocks()).extracting(Block::getStart).containsExactly(0L, 9L, 16L, 22L, 31L, 36L, 46L);
+      assertThat(analysis.blockAt(0).getSuccessors()).containsExactly(22L, 9L);
+      assertThat(analysis.blockAt(16).getSuccessors()).containsExactly(36L);
+      assertThat(analysis.blockAt(46).getSuccessors()).isEmpty();
+      assertThat(analysis.isCode(19)).isFalse();
+      assertThat(analysis.isWritten(20)).isTrue();
+      assertThat(analysis.isSelfModifying()).isFalse();
+      assertThat(analysis.getIndirectJumps()).isEmpty();
+    }
+
+    @org.junit.jupiter.api.Test
+    void disassemble_marksModifiedCode() {
+      var analysis = ProgramAnalysis.parse("1101,10,20,6,1101,1,0,12,4,12,99,0,0");
+
+      assertThat(analysis.isSelfModifying()).isTrue();
+      assertThat(analysis.isStable(0)).isTrue();
+      assertThat(analysis.isStable(6)).isFalse();
+      assertThat(analysis.disassemble().lines()).containsExactly("     0  add 10, 20, [6]",
+                                                                  "     4  add 1, 0, [12]  ; modified",
+                                                                  "     8  out [12]",
+                                                                  "    10  hlt",
+                                                                  "    11  .data 0, 0");
+    }
+
+    @org.junit.jupiter.api.Test
+    void analyze_relativeAccesses() {
+      var analysis = ProgramAnalysis.parse("109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99");
+
+      assertThat(analysis.isDynamicWrites()).isFalse();
+      assertThat(analysis.getBlocks()).hasSize(2);
+      assertThat(analysis.blockAt(0).getSuccessors()).containsExactly(0L, 15L);
+      assertThat(analysis.disassemble()).contains("out [rb-1]");
+    }
+
+    @org.junit.jupiter.api.Test
+    void analyze_stopsAtInvalidInstructions() {
+      assertThat(ProgramAnalysis.parse("30001,0,0,0,99").disassemble()).startsWith("     0  ??? 30001");
+      assertThat(ProgramAnalysis.parse("11101,0,0,0,99").isInstruction(0)).isFalse();
+      assertThat(ProgramAnalysis.parse("1105,1,4,98,1").isInstruction(4)).isFalse();
+      assertThat(ProgramAnalysis.parse("1105,1,4,98,1").isInstruction(0)).isTrue();
+    }
+
+    @org.junit.jupiter.api.Test
+    void analyze_millionsOfCells() {
+      var image = new long[4_000_000];
+      for (var address = 0; address + 4 < image.length; address += 4) {
+        image[address] = 1101;
+        image[address + 3] = image.length - 1;
+      }
+      image[image.length - 4] = 99;
+
+      var analysis = ProgramAnalysis.of(image);
+
+      assertThat(analysis.getBlocks()).hasSize(1);
+      assertThat(analysis.isWritten(image.length - 1)).isTrue();
+      assertThat(analysis.isCode(image.length - 1)).isFalse();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.Memory.PAGE_BITS;
+import static adventofcode.y2019.Memory.PAGE_SIZE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
+
+/**
+ * An immutable program, interned by content: loading the same program twice yields the same image, split once into
+ * memory pages. A {@link Memory} started from an image shares its pages until it writes to them, so computers running
+ * one program only pay for the pages they change.
+ * <p>
+ * Images are held weakly, and dropped once no computer refers to them, along with the code compiled from them.
+ */
+final class ProgramImage {
+  private static final Interner<ProgramImage> IMAGES = Interners.newWeakInterner();
+
+  private final long[] cells;
+  private Jit.CodeCache code;
+  private final int hash;
+  private final long[][] pages;
+
+  private ProgramImage(final long[] cells) {
+    this.cells = cells;
+    hash = Arrays.hashCode(cells);
+    pages = new long[(cells.length + PAGE_SIZE - 1) >>> PAGE_BITS][];
+    for (var page = 0; page < pages.length; page++) {
+      pages[page] = Arrays.copyOfRange(cells, page * PAGE_SIZE, (page + 1) * PAGE_SIZE);
+    }
+  }
+
+  /**
+   * @return the image of the given cells, which are copied unless an equal image is already loaded.
+   */
+  static ProgramImage of(final long[] cells) {
+    return IMAGES.intern(new ProgramImage(cells.clone()));
+  }
+
+  static ProgramImage parse(final CharSequence program) {
+    return IMAGES.intern(new ProgramImage(ImageParser.parse(program)));
+  }
+
+  /**
+   * @return the cells of the program. Callers must not modify them.
+   */
+  long[] cells() {
+    return cells;
+  }
+
+  /**
+   * @return the blocks compiled from this program, which are unloaded with it.
+   */
+  synchronized Jit.CodeCache code() {
+    if (code == null) {
+      code = new Jit.CodeCache();
+    }
+    return code;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return other instanceof ProgramImage && hash == ((ProgramImage) other).hash
+           && Arrays.equals(cells, ((ProgramImage) other).cells);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  int length() {
+    return cells.length;
+  }
+
+  /**
+   * @return the cells of a page, padded with zeros to {@link Memory#PAGE_SIZE}. Callers must not modify them.
+   */
+  long[] page(final int page) {
+    return pages[page];
+  }
+
+  int pageCount() {
+    return pages.length;
+  }
+
+  static class Test {
+    @org.junit.jupiter.api.Test
+    void of_internsByContent() {
+      var image = ProgramImage.parse("1,0,0,0,99");
+
+      assertThat(ProgramImage.of(new long[] {1, 0, 0, 0, 99})).isSameAs(image);
+      assertThat(ProgramImage.parse("1,0,0,0,98")).isNotSameAs(image);
+    }
+
+    @org.junit.jupiter.api.Test
+    void computers_shareThePagesTheyDoNotWrite() {
+      var cells = new long[PAGE_SIZE + 5];
+      cells[0] = 1101;
+      cells[1] = 2;
+      cells[2] = 3;
+      cells[3] = PAGE_SIZE + 1;
+      cells[4] = 99;
+      var image = ProgramImage.of(cells);
+      var first = Computer.of(image);
+      var second = Computer.of(image);
+
+      first.run();
+      second.poke(PAGE_SIZE + 2, 7);
+
+      assertThat(first.memory().page(0)).isSameAs(image.page(0)).isSameAs(second.memory().page(0));
+      assertThat(first.memory().page(1)).isNotSameAs(image.page(1)).isNotSameAs(second.memory().page(1));
+      assertThat(first.peek(PAGE_SIZE + 1)).isEqualTo(5);
+      assertThat(second.peek(PAGE_SIZE + 1)).isZero();
+      assertThat(second.peek(PAGE_SIZE + 2)).isEqualTo(7);
+      assertThat(image.page(1)[1]).isZero();
+    }
+  }
+}
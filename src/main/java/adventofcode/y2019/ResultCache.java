@@ -0,0 +1,385 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoizes pure Intcode runs: a run from the initial state of a program depends only on the program and its inputs, so
+ * its result is keyed by the SHA-256 of the program image plus the arguments of the run.
+ * <p>
+ * Entries are evicted least recently used first, once the cache holds more than its maximum number of entries or of
+ * cached cells. With {@link #withDirectory(Path)}, results are also written to disk, one file per key, so another
+ * process running the same job finds them there.
+ */
+final class ResultCache {
+  private static final long RUN = 0L;
+  private static final long SWEEP = 1L;
+
+  private Path directory;
+  @Getter
+  private long diskHits;
+  private final Map<Key, long[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  @Getter
+  private long evictions;
+  @Getter
+  private long hits;
+  private final int maxCells;
+  private final int maxEntries;
+  @Getter
+  private long misses;
+  private long size;
+
+  ResultCache(final int maxEntries) {
+    this(maxEntries, Integer.MAX_VALUE);
+  }
+
+  ResultCache(final int maxEntries, final int maxCells) {
+    checkArgument(maxEntries > 0 && maxCells > 0, "the cache needs room for at least one entry");
+    this.maxEntries = maxEntries;
+    this.maxCells = maxCells;
+  }
+
+  /**
+   * @return a handle on the program, hashed and parsed once for all its runs.
+   */
+  Program program(final String program) {
+    return program(ImageParser.parse(program));
+  }
+
+  Program program(final long[] image) {
+    return new Program(image);
+  }
+
+  /**
+   * @return the SHA-256 of the cells, as big-endian longs: the identity of a program's content.
+   */
+  static HashCode digest(final long[] cells) {
+    var hasher = Hashing.sha256().newHasher(cells.length * Long.BYTES);
+    for (var cell : cells) {
+      hasher.putLong(cell);
+    }
+    return hasher.hash();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Also keeps results in the given directory, which outlives this cache.
+   */
+  ResultCache withDirectory(final Path directory) {
+    this.directory = directory;
+    return this;
+  }
+
+  /**
+   * @return a copy of the cached result, so callers cannot change what later hits see.
+   */
+  private long[] computeIfAbsent(final Key key, final Runner runner) {
+    var result = lookup(key);
+    if (result == null) {
+      result = runner.run();
+      store(key, result);
+    }
+    return result.clone();
+  }
+
+  private synchronized long[] lookup(final Key key) {
+    var result = entries.get(key);
+    if (result != null) {
+      hits++;
+      return result;
+    }
+    if (directory != null) {
+      result = read(key);
+      if (result != null) {
+        diskHits++;
+        put(key, result);
+        return result;
+      }
+    }
+    misses++;
+    return null;
+  }
+
+  private void put(final Key key, final long[] result) {
+    var previous = entries.put(key, result);
+    size += result.length - (previous == null ? 0 : previous.length);
+    var eldest = entries.entrySet().iterator();
+    while (entries.size() > 1 && (entries.size() > maxEntries || size > maxCells)) {
+      size -= eldest.next().getValue().length;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * @return the result stored for the key, or {@code null} if there is none. A file whose length does not match its
+   * header is truncated or corrupt: it is deleted, and the result computed again.
+   */
+  private long[] read(final Key key) {
+    var file = directory.resolve(key.fileName());
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (var in = new DataInputStream(Files.newInputStream(file))) {
+      var length = in.readInt();
+      if (length < 0 || Files.size(file) != Integer.BYTES + (long) Long.BYTES * length) {
+        in.close();
+        Files.deleteIfExists(file);
+        return null;
+      }
+      var result = new long[length];
+      for (var i = 0; i < result.length; i++) {
+        result[i] = in.readLong();
+      }
+      return result;
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  private synchronized void store(final Key key, final long[] result) {
+    put(key, result);
+    if (directory != null) {
+      write(key, result);
+    }
+  }
+
+  private void write(final Key key, final long[] result) {
+    try {
+      Files.createDirectories(directory);
+      var temporary = Files.createTempFile(directory, "result", ".tmp");
+      try (var out = new DataOutputStream(Files.newOutputStream(temporary))) {
+        out.writeInt(result.length);
+        for (var value : result) {
+          out.writeLong(value);
+        }
+      }
+      try {
+        Files.move(temporary, directory.resolve(key.fileName()), StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temporary, directory.resolve(key.fileName()), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * A program whose runs go through the cache. Runs are forked from one parsed template, so concurrent callers share
+   * its memory pages.
+   */
+  final class Program {
+    private final HashCode digest;
+    private final Computer template;
+
+    private Program(final long[] image) {
+      digest = digest(image);
+      template = Computer.of(image);
+    }
+
+    /**
+     * @return the outputs of the program run from its initial state on the given inputs.
+     */
+    long[] run(final long... inputs) {
+      return computeIfAbsent(new Key(digest, RUN, inputs), () -> {
+        var outputs = new LongRingBuffer();
+        var buffer = new LongRingBuffer(inputs.length);
+        for (var input : inputs) {
+          buffer.accept(input);
+        }
+        fork().withInput(buffer).withOutput(outputs).run();
+        return outputs.toArray();
+      });
+    }
+
+    /**
+     * Day02-style run: writes the values at the given addresses, runs without input and reads the result cell.
+     */
+    long sweep(final long[] addresses, final long[] values, final long resultAddress) {
+      checkArgument(addresses.length == values.length, "one value per address");
+      var arguments = Arrays.copyOf(addresses, addresses.length * 2 + 1);
+      System.arraycopy(values, 0, arguments, addresses.length, values.length);
+      arguments[arguments.length - 1] = resultAddress;
+      return computeIfAbsent(new Key(digest, SWEEP, arguments), () -> {
+        var computer = fork();
+        for (var i = 0; i < addresses.length; i++) {
+          computer.poke(addresses[i], values[i]);
+        }
+        computer.run();
+        return new long[] {computer.peek(resultAddress)};
+      })[0];
+    }
+
+    private Computer fork() {
+      synchronized (template) {
+        return template.fork();
+      }
+    }
+  }
+
+  static class Test {
+    private static final String DOUBLER = "3,100,1002,100,2,100,4,100,1105,1,0";
+
+    @org.junit.jupiter.api.Test
+    void run_secondCallIsAHit() {
+      var cache = new ResultCache(16);
+      var program = cache.program(DOUBLER);
+
+      assertThat(program.run(1, 2)).containsExactly(2L, 4L);
+      assertThat(program.run(1, 2)).containsExactly(2L, 4L);
+      assertThat(program.run(2, 1)).containsExactly(4L, 2L);
+
+      assertThat(cache.getHits()).isEqualTo(1);
+      assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_callersCannotChangeCachedResults() {
+      var program = new ResultCache(16).program(DOUBLER);
+      program.run(1)[0] = 42;
+      program.run(1)[0] = 42;
+
+      assertThat(program.run(1)).containsExactly(2L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_sameContentSharesEntries() {
+      var cache = new ResultCache(16);
+      cache.program(DOUBLER).run(3);
+
+      assertThat(cache.program(DOUBLER).run(3)).containsExactly(6L);
+      assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @org.junit.jupiter.api.Test
+    void put_evictsLeastRecentlyUsed() {
+      var cache = new ResultCache(2);
+      var program = cache.program(DOUBLER);
+      program.run(1);
+      program.run(2);
+      program.run(1);
+      program.run(3);
+
+      program.run(1);
+      assertThat(cache.getHits()).isEqualTo(2);
+      program.run(2);
+      assertThat(cache.getMisses()).isEqualTo(4);
+      assertThat(cache.getEvictions()).isEqualTo(2);
+      assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @org.junit.jupiter.api.Test
+    void put_evictsBeyondMaxCells() {
+      var cache = new ResultCache(100, 4);
+      var program = cache.program(DOUBLER);
+      program.run(1, 2, 3);
+      program.run(4, 5);
+
+      assertThat(cache.size()).isEqualTo(1);
+      assertThat(cache.getEvictions()).isEqualTo(1);
+    }
+
+    @org.junit.jupiter.api.Test
+    void run_recomputesCorruptFiles() throws IOException {
+      var directory = Files.createTempDirectory("results");
+      try {
+        new ResultCache(16).withDirectory(directory).program(DOUBLER).run(3);
+        try (var files = Files.list(directory)) {
+          var file = files.findFirst().orElseThrow();
+          Files.write(file, new byte[] {0x7f, -1, -1, -1, 0, 0});
+        }
+
+        var cache = new ResultCache(16).withDirectory(directory);
+        assertThat(cache.program(DOUBLER).run(3)).containsExactly(6L);
+        assertThat(cache.getDiskHits()).isZero();
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(new ResultCache(16).withDirectory(directory).program(DOUBLER).run(3)).containsExactly(6L);
+      } finally {
+        try (var files = Files.list(directory)) {
+          for (var file : (Iterable<Path>) files::iterator) {
+            Files.delete(file);
+          }
+        }
+        Files.delete(directory);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void sweep_survivesInDirectory() throws IOException {
+      var directory = Files.createTempDirectory("results");
+      try {
+        var first = new ResultCache(16).withDirectory(directory);
+        assertThat(first.program("1,0,0,0,99").sweep(new long[] {1, 2}, new long[] {4, 4}, 0)).isEqualTo(198L);
+
+        var second = new ResultCache(16).withDirectory(directory);
+        assertThat(second.program("1,0,0,0,99").sweep(new long[] {1, 2}, new long[] {4, 4}, 0)).isEqualTo(198L);
+        assertThat(second.getDiskHits()).isEqualTo(1);
+        assertThat(second.getMisses()).isZero();
+      } finally {
+        try (var files = Files.list(directory)) {
+          for (var file : (Iterable<Path>) files::iterator) {
+            Files.delete(file);
+          }
+        }
+        Files.delete(directory);
+      }
+    }
+  }
+
+  private interface Runner {
+    long[] run();
+  }
+
+  private static final class Key {
+    private final long[] arguments;
+    private final HashCode program;
+
+    Key(final HashCode program, final long kind, final long[] arguments) {
+      this.program = program;
+      this.arguments = new long[arguments.length + 1];
+      this.arguments[0] = kind;
+      System.arraycopy(arguments, 0, this.arguments, 1, arguments.length);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      var key = (Key) other;
+      return program.equals(key.program) && Arrays.equals(arguments, key.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * program.hashCode() + Arrays.hashCode(arguments);
+    }
+
+    String fileName() {
+      var hasher = Hashing.sha256().newHasher().putBytes(program.asBytes());
+      for (var argument : arguments) {
+        hasher.putLong(argument);
+      }
+      return hasher.hash() + ".bin";
+    }
+  }
+}
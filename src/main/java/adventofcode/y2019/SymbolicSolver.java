@@ -0,0 +1,341 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Solves Day02-style searches: which noun and verb, written at two addresses of a program made of additions and
+ * multiplications, leave the target value in the result cell.
+ * <p>
+ * The program is executed once symbolically, each cell holding a polynomial in the noun and the verb, with the
+ * wrap-around arithmetic of the machine. Cells read through an address that depends on the noun or the verb are
+ * unknown, which is fine as long as nothing unknown reaches the result, an address written to, or an opcode. A result
+ * of degree at most one in the verb is then solved for each noun modulo 2<sup>64</sup>, and the same with the roles
+ * swapped, so the search is linear in one of the ranges. Other polynomials are evaluated over the whole range, and
+ * programs the symbolic run cannot follow are brute forced; both searches go through {@link InputSpace}.
+ */
+final class SymbolicSolver {
+  private static final int MAX_DEGREE = 16;
+
+  private SymbolicSolver() {
+  }
+
+  /**
+   * @return the result cell of the program, as a polynomial in the values at the noun and verb addresses, or
+   * {@code null} if the program does more than add and multiply at fixed addresses.
+   */
+  static Polynomial evaluate(final long[] image, final long nounAddress, final long verbAddress,
+                             final long resultAddress) {
+    if (!isCell(image, nounAddress) || !isCell(image, verbAddress) || !isCell(image, resultAddress)) {
+      return null;
+    }
+    var cells = new Polynomial[image.length];
+    Arrays.setAll(cells, address -> Polynomial.constant(image[address]));
+    cells[(int) nounAddress] = Polynomial.NOUN;
+    cells[(int) verbAddress] = Polynomial.VERB;
+    var pc = 0;
+    while (true) {
+      var opCode = constantAt(cells, pc);
+      if (opCode == null || opCode != Instruction.HALT && pc + 3 >= cells.length) {
+        return null;
+      }
+      if (opCode == Instruction.HALT) {
+        return cells[(int) resultAddress];
+      }
+      if (opCode != Instruction.ADD && opCode != Instruction.MULTIPLY) {
+        return null;
+      }
+      var left = read(cells, constantAt(cells, pc + 1));
+      var right = read(cells, constantAt(cells, pc + 2));
+      var target = constantAt(cells, pc + 3);
+      if (target == null || !isCell(image, target)) {
+        return null;
+      }
+      cells[target.intValue()] = left == null || right == null ? null
+                                   : opCode == Instruction.ADD ? left.plus(right) : left.times(right);
+      pc += 4;
+    }
+  }
+
+  /**
+   * @return the first noun and verb, nouns first, within {@code [0, maxNoun]} and {@code [0, maxVerb]} leaving the
+   * target at the result address.
+   */
+  static Optional<long[]> solve(final long[] image, final long[] nounAndVerb, final long resultAddress,
+                                final long target, final long maxNoun, final long maxVerb) {
+    checkArgument(nounAndVerb.length == 2, "expecting a noun and a verb address");
+    checkArgument(maxNoun >= 0 && maxVerb >= 0, "ranges should not be empty");
+    var result = evaluate(image, nounAndVerb[0], nounAndVerb[1], resultAddress);
+    if (result == null) {
+      return bruteForce(image, nounAndVerb, resultAddress, target, maxNoun, maxVerb);
+    }
+    if (result.verbDegree() <= 1) {
+      for (var noun = 0L; noun <= maxNoun; noun++) {
+        var verb = solveLinear(result.verbCoefficient(noun, 0), result.verbCoefficient(noun, 1), target);
+        if (verb <= maxVerb) {
+          return Optional.of(new long[] {noun, verb});
+        }
+      }
+      return Optional.empty();
+    }
+    if (result.nounDegree() <= 1) {
+      long[] best = null;
+      for (var verb = 0L; verb <= maxVerb; verb++) {
+        var noun = solveLinear(result.nounCoefficient(0, verb), result.nounCoefficient(1, verb), target);
+        if (noun <= maxNoun && (best == null || noun < best[0])) {
+          best = new long[] {noun, verb};
+        }
+      }
+      return Optional.ofNullable(best);
+    }
+    var space = InputSpace.product(InputSpace.range(0, maxNoun), InputSpace.range(0, maxVerb));
+    return space.findFirst(pair -> result.at(pair[0], pair[1]) == target);
+  }
+
+  private static Optional<long[]> bruteForce(final long[] image, final long[] nounAndVerb, final long resultAddress,
+                                             final long target, final long maxNoun, final long maxVerb) {
+    var template = Computer.of(image);
+    var workers = ThreadLocal.withInitial(() -> {
+      synchronized (template) {
+        return template.fork();
+      }
+    });
+    var space = InputSpace.product(InputSpace.range(0, maxNoun), InputSpace.range(0, maxVerb));
+    return space.findFirst(pair -> {
+      var computer = workers.get().fork();
+      computer.poke(nounAndVerb[0], pair[0]);
+      computer.poke(nounAndVerb[1], pair[1]);
+      computer.run();
+      return computer.peek(resultAddress) == target;
+    });
+  }
+
+  private static Long constantAt(final Polynomial[] cells, final long address) {
+    if (address < 0 || address >= cells.length || cells[(int) address] == null) {
+      return null;
+    }
+    return cells[(int) address].constant();
+  }
+
+  private static boolean isCell(final long[] image, final long address) {
+    return address >= 0 && address < image.length;
+  }
+
+  private static Polynomial read(final Polynomial[] cells, final Long address) {
+    return address == null || address < 0 || address >= cells.length ? null : cells[address.intValue()];
+  }
+
+  /**
+   * @return the smallest x in {@code [0, Long.MAX_VALUE]} with {@code constant + factor * x == target} in wrap-around
+   * arithmetic, or {@link Long#MAX_VALUE} if there is none.
+   */
+  private static long solveLinear(final long constant, final long factor, final long target) {
+    var difference = target - constant;
+    if (factor == 0) {
+      return difference == 0 ? 0 : Long.MAX_VALUE;
+    }
+    // factor = odd * 2^shift: divide both sides by 2^shift, then multiply by the inverse of odd modulo 2^(64 - shift)
+    var shift = Long.numberOfTrailingZeros(factor);
+    if (Long.numberOfTrailingZeros(difference) < shift) {
+      return Long.MAX_VALUE;
+    }
+    var odd = factor >>> shift;
+    var inverse = odd;
+    for (var i = 0; i < 5; i++) {
+      inverse *= 2 - odd * inverse;
+    }
+    var result = (difference >>> shift) * inverse & -1L >>> shift;
+    return result < 0 ? Long.MAX_VALUE : result;
+  }
+
+  /**
+   * A polynomial in the noun and the verb, with wrap-around coefficients: {@code coefficients[i][j]} multiplies
+   * noun<sup>i</sup> verb<sup>j</sup>.
+   */
+  static final class Polynomial {
+    private static final Polynomial NOUN = new Polynomial(new long[][] {{0}, {1}});
+    private static final Polynomial VERB = new Polynomial(new long[][] {{0, 1}});
+
+    private final long[][] coefficients;
+
+    private Polynomial(final long[][] coefficients) {
+      this.coefficients = coefficients;
+    }
+
+    static Polynomial constant(final long value) {
+      return new Polynomial(new long[][] {{value}});
+    }
+
+    long at(final long noun, final long verb) {
+      var result = 0L;
+      for (var i = coefficients.length - 1; i >= 0; i--) {
+        result = result * noun + horner(coefficients[i], verb);
+      }
+      return result;
+    }
+
+    /**
+     * @return the value if the polynomial is a constant, {@code null} otherwise.
+     */
+    Long constant() {
+      for (var i = 0; i < coefficients.length; i++) {
+        for (var j = 0; j < coefficients[i].length; j++) {
+          if ((i > 0 || j > 0) && coefficients[i][j] != 0) {
+            return null;
+          }
+        }
+      }
+      return coefficients[0][0];
+    }
+
+    int nounDegree() {
+      for (var i = coefficients.length - 1; i > 0; i--) {
+        if (Arrays.stream(coefficients[i]).anyMatch(coefficient -> coefficient != 0)) {
+          return i;
+        }
+      }
+      return 0;
+    }
+
+    int verbDegree() {
+      var result = 0;
+      for (var row : coefficients) {
+        for (var j = row.length - 1; j > result; j--) {
+          if (row[j] != 0) {
+            result = j;
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      var result = new StringBuilder();
+      for (var i = 0; i < coefficients.length; i++) {
+        for (var j = 0; j < coefficients[i].length; j++) {
+          if (coefficients[i][j] != 0) {
+            result.append(result.length() == 0 ? "" : " + ").append(coefficients[i][j]);
+            result.append(i == 0 ? "" : i == 1 ? "*n" : "*n^" + i).append(j == 0 ? "" : j == 1 ? "*v" : "*v^" + j);
+          }
+        }
+      }
+      return result.length() == 0 ? "0" : result.toString();
+    }
+
+    /**
+     * @return the coefficient of noun<sup>power</sup>, for the given verb.
+     */
+    private long nounCoefficient(final int power, final long verb) {
+      return power < coefficients.length ? horner(coefficients[power], verb) : 0L;
+    }
+
+    /**
+     * @return the coefficient of verb<sup>power</sup>, for the given noun.
+     */
+    private long verbCoefficient(final long noun, final int power) {
+      var result = 0L;
+      for (var i = coefficients.length - 1; i >= 0; i--) {
+        result = result * noun + (power < coefficients[i].length ? coefficients[i][power] : 0L);
+      }
+      return result;
+    }
+
+    private static long horner(final long[] coefficients, final long x) {
+      var result = 0L;
+      for (var i = coefficients.length - 1; i >= 0; i--) {
+        result = result * x + coefficients[i];
+      }
+      return result;
+    }
+
+    private Polynomial plus(final Polynomial other) {
+      var result = new long[Math.max(coefficients.length, other.coefficients.length)][];
+      for (var i = 0; i < result.length; i++) {
+        var mine = i < coefficients.length ? coefficients[i] : new long[0];
+        var theirs = i < other.coefficients.length ? other.coefficients[i] : new long[0];
+        result[i] = Arrays.copyOf(mine, Math.max(mine.length, theirs.length));
+        for (var j = 0; j < theirs.length; j++) {
+          result[i][j] += theirs[j];
+        }
+      }
+      return new Polynomial(result);
+    }
+
+    /**
+     * @return the product, or {@code null} (unknown) past {@value #MAX_DEGREE} in either variable.
+     */
+    private Polynomial times(final Polynomial other) {
+      var nouns = nounDegree() + other.nounDegree() + 1;
+      var verbs = verbDegree() + other.verbDegree() + 1;
+      if (nouns > MAX_DEGREE + 1 || verbs > MAX_DEGREE + 1) {
+        return null;
+      }
+      var result = new long[nouns][verbs];
+      for (var i = 0; i < coefficients.length; i++) {
+        for (var j = 0; j < coefficients[i].length; j++) {
+          if (coefficients[i][j] == 0) {
+            continue;
+          }
+          for (var k = 0; k < other.coefficients.length; k++) {
+            for (var l = 0; l < other.coefficients[k].length; l++) {
+              result[i + k][j + l] += coefficients[i][j] * other.coefficients[k][l];
+            }
+          }
+        }
+      }
+      return new Polynomial(result);
+    }
+  }
+
+  static class Test {
+    private static final long[] NOUN_AND_VERB = {1, 2};
+
+    @org.junit.jupiter.api.Test
+    void evaluate_ignoresDeadSymbolicReads() {
+      // cell 3 is first read through the noun and verb, then overwritten
+      var image = Computer.parse("1,0,0,3,1,1,2,3,2,3,13,0,99,5").image();
+
+      var result = evaluate(image, 1, 2, 0);
+
+      assertThat(result).hasToString("5*v + 5*n");
+      assertThat(result.at(3, 4)).isEqualTo(35L);
+    }
+
+    @org.junit.jupiter.api.Test
+    void evaluate_symbolicWriteAddress_isNotSupported() {
+      // the noun is the target of the second addition
+      assertThat(evaluate(Computer.parse("1,8,8,0,1,8,8,9,99,0").image(), 7, 9, 0)).isNull();
+    }
+
+    @org.junit.jupiter.api.Test
+    void solve_linearInVerb_scalesWithTheNounRange() {
+      var image = Computer.parse("1,0,0,3,2,1,13,3,1,3,2,0,99,1000003").image();
+
+      var result = solve(image, NOUN_AND_VERB, 0, 1_000_002_000_014L, 1_000_000, 1_000_000);
+
+      assertThat(result).hasValueSatisfying(pair -> assertThat(pair).containsExactly(999_999L, 17L));
+    }
+
+    @org.junit.jupiter.api.Test
+    void solve_agreesWithBruteForce() {
+      var image = Computer.parse("2,0,0,3,2,1,1,3,1,3,2,0,2,0,0,0,99").image();
+      var target = evaluate(image, 1, 2, 0).at(7, 9);
+
+      var symbolic = solve(image, NOUN_AND_VERB, 0, target, 20, 20);
+
+      assertThat(symbolic.get()).isEqualTo(bruteForce(image, NOUN_AND_VERB, 0, target, 20, 20).get());
+    }
+
+    @org.junit.jupiter.api.Test
+    void solve_unsupportedProgram_fallsBackToRuns() {
+      // multiplies the noun and the verb as immediate parameters
+      var image = Computer.parse("1102,0,0,0,99").image();
+
+      assertThat(solve(image, NOUN_AND_VERB, 0, 42, 10, 10).get()).containsExactly(6L, 7L);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package adventofcode.y2019;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Records a compact binary trace of a computer's execution, to be read back by {@link TraceReplayer}.
+ * <p>
+ * The trace starts with a header (magic, version, then the program counter, relative base and instruction count at
+ * attach time) followed by one tagged event per step, write, base change and I/O value. Numbers are zigzag varints,
+ * program counters and write addresses are deltas against the expected ones, so a straight-line step is a single byte
+ * and repetitive loops compress well.
+ * <p>
+ * Every {@code keyframeInterval} steps, a keyframe precedes the step: the number of steps so far, the registers, the
+ * number of I/O values so far, the pages {@link Memory#drainDirtyPages() drained} since the previous keyframe and the
+ * overflow cells. The memory at a keyframe is the starting memory plus the pages of every keyframe up to it, so a
+ * replayer can rebuild it without reading the steps in between. Draining is not shared: a computer being recorded must
+ * not be checkpointed by a {@link CheckpointStore} at the same time. Off-heap memories cannot be drained, so their
+ * traces have no keyframes.
+ */
+final class TraceRecorder implements Closeable, ExecutionListener {
+  static final int MAGIC = 0x49435452;
+  static final int VERSION = 2;
+
+  static final byte STEP = 0;
+  static final byte JUMP = 1;
+  static final byte WRITE = 2;
+  static final byte BASE = 3;
+  static final byte INPUT = 4;
+  static final byte OUTPUT = 5;
+  static final byte END = 6;
+  static final byte KEYFRAME = 7;
+
+  static final long DEFAULT_KEYFRAME_INTERVAL = 1L << 16;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_EVENT_LENGTH = 1 + 2 * Varints.MAX_LENGTH;
+
+  private long base;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final WritableByteChannel channel;
+  private final Computer computer;
+  private long inputs;
+  private final long keyframeInterval;
+  private long lastWrite;
+  private Memory memory;
+  private long nextProgramCounter;
+  private long outputs;
+  private long steps;
+
+  private TraceRecorder(final Computer computer, final WritableByteChannel channel, final long keyframeInterval) {
+    this.computer = computer;
+    this.channel = channel;
+    this.keyframeInterval = keyframeInterval;
+    base = computer.getBase();
+    memory = computer.memory();
+    nextProgramCounter = computer.getProgramCounter();
+    buffer.putInt(MAGIC);
+    buffer.put((byte) VERSION);
+    Varints.putSigned(buffer, computer.getProgramCounter());
+    Varints.putSigned(buffer, computer.getBase());
+    Varints.put(buffer, computer.getInstructionCount());
+  }
+
+  /**
+   * Attaches a recorder to the computer. Closing it detaches it, writes the final program counter and closes the
+   * channel.
+   */
+  static TraceRecorder attach(final Computer computer, final WritableByteChannel channel) {
+    return attach(computer, channel, DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  static TraceRecorder attach(final Computer computer, final WritableByteChannel channel, final long keyframeInterval) {
+    checkArgument(keyframeInterval > 0, "keyframes need a positive interval");
+    var result = new TraceRecorder(computer, channel, keyframeInterval);
+    computer.withListener(result);
+    return result;
+  }
+
+  static TraceRecorder attach(final Computer computer, final Path path) throws IOException {
+    return attach(computer, path, DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  static TraceRecorder attach(final Computer computer, final Path path, final long keyframeInterval)
+    throws IOException {
+    return attach(computer,
+                  FileChannel.open(path,
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.WRITE),
+                  keyframeInterval);
+  }
+
+  @Override
+  public void close() throws IOException {
+    computer.withListener(null);
+    reserve();
+    buffer.put(END);
+    Varints.putSigned(buffer, computer.getProgramCounter() - nextProgramCounter);
+    flush();
+    channel.close();
+  }
+
+  @Override
+  public void onBaseChange(final long base) {
+    reserve();
+    buffer.put(BASE);
+    Varints.putSigned(buffer, base);
+    this.base = base;
+  }
+
+  @Override
+  public void onInput(final long value) {
+    reserve();
+    buffer.put(INPUT);
+    Varints.putSigned(buffer, value);
+    inputs++;
+  }
+
+  @Override
+  public void onInstruction(final long programCounter, final Instruction instruction) {
+    if (steps > 0 && steps % keyframeInterval == 0 && computer.memory().offHeap() == null) {
+      writeKeyframe();
+    }
+    steps++;
+    reserve();
+    if (programCounter == nextProgramCounter) {
+      buffer.put(STEP);
+    } else {
+      buffer.put(JUMP);
+      Varints.putSigned(buffer, programCounter - nextProgramCounter);
+    }
+    nextProgramCounter = instruction.opCode == Instruction.HALT
+      ? Computer.PROGRAM_COUNTER_END
+      : programCounter + instruction.length;
+  }
+
+  @Override
+  public void onOutput(final long value) {
+    reserve();
+    buffer.put(OUTPUT);
+    Varints.putSigned(buffer, value);
+    outputs++;
+  }
+
+  @Override
+  public void onWrite(final long address, final long value) {
+    reserve();
+    buffer.put(WRITE);
+    Varints.putSigned(buffer, address - lastWrite);
+    Varints.putSigned(buffer, value);
+    lastWrite = address;
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Writes the state after {@link #steps} steps: registers, I/O counts, the pages written since the last keyframe (all
+   * of them if the computer switched memories) and the overflow cells.
+   */
+  private void writeKeyframe() {
+    reserve();
+    buffer.put(KEYFRAME);
+    Varints.put(buffer, steps);
+    Varints.putSigned(buffer, nextProgramCounter);
+    reserve();
+    Varints.putSigned(buffer, base);
+    Varints.putSigned(buffer, lastWrite);
+    reserve();
+    Varints.put(buffer, inputs);
+    Varints.put(buffer, outputs);
+    var dirty = computer.memory().drainDirtyPages();
+    if (computer.memory() != memory) {
+      memory = computer.memory();
+      dirty = IntStream.range(0, memory.pageCount()).filter(page -> memory.page(page) != null).toArray();
+    }
+    reserve();
+    Varints.put(buffer, dirty.length);
+    for (var page : dirty) {
+      var cells = memory.page(page);
+      reserve();
+      Varints.put(buffer, page);
+      for (var offset = 0; offset < Memory.PAGE_SIZE; offset++) {
+        reserve();
+        Varints.putSigned(buffer, cells == null ? 0L : cells[offset]);
+      }
+    }
+    var overflow = memory.overflowCells();
+    reserve();
+    Varints.put(buffer, overflow.length / 2);
+    for (var cell = 0; cell < overflow.length; cell += 2) {
+      reserve();
+      Varints.putSigned(buffer, overflow[cell]);
+      Varints.putSigned(buffer, overflow[cell + 1]);
+    }
+  }
+
+  private void reserve() {
+    if (buffer.remaining() < MAX_EVENT_LENGTH) {
+      try {
+        flush();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,424 @@
+package adventofcode.y2019;
+
+import static adventofcode.y2019.TraceRecorder.BASE;
+import static adventofcode.y2019.TraceRecorder.END;
+import static adventofcode.y2019.TraceRecorder.INPUT;
+import static adventofcode.y2019.TraceRecorder.JUMP;
+import static adventofcode.y2019.TraceRecorder.KEYFRAME;
+import static adventofcode.y2019.TraceRecorder.MAGIC;
+import static adventofcode.y2019.TraceRecorder.OUTPUT;
+import static adventofcode.y2019.TraceRecorder.STEP;
+import static adventofcode.y2019.TraceRecorder.VERSION;
+import static adventofcode.y2019.TraceRecorder.WRITE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds the state of a computer at any step of a {@link TraceRecorder} trace by applying the recorded writes and
+ * base changes, without executing a single instruction. The computer must start in the state it was in when recording
+ * started, typically freshly parsed from the same program. Its ports are left alone: the replayed I/O is available
+ * from {@link #getInputs()} and {@link #getOutputs()}.
+ * <p>
+ * The replayer indexes the keyframes it reads by step and offset, so seeking back only replays the steps since the
+ * nearest one.
+ */
+final class TraceReplayer implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_EVENT_LENGTH = 1 + 2 * Varints.MAX_LENGTH;
+
+  private static final class Keyframe {
+    final long inputs;
+    final long offset;
+    final long outputs;
+    final long step;
+
+    Keyframe(final long step, final long offset, final long inputs, final long outputs) {
+      this.step = step;
+      this.offset = offset;
+      this.inputs = inputs;
+      this.outputs = outputs;
+    }
+  }
+
+  private long base;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  /**
+   * The offset in the channel of the first byte of the buffer.
+   */
+  private long bufferStart;
+  private final ReadableByteChannel channel;
+  private final Computer computer;
+  private boolean endOfChannel;
+  private LongRingBuffer inputs;
+  private final List<Keyframe> keyframes = new ArrayList<>();
+  private long lastWrite;
+  private long nextProgramCounter;
+  private LongRingBuffer outputs;
+  private final Computer.Snapshot start;
+  private long startInstructionCount;
+  private long step;
+
+  private TraceReplayer(final Computer computer, final ReadableByteChannel channel) throws IOException {
+    this.computer = computer;
+    this.channel = channel;
+    start = computer.snapshot();
+    buffer.flip();
+    readHeader();
+  }
+
+  static TraceReplayer open(final Computer computer, final ReadableByteChannel channel) throws IOException {
+    return new TraceReplayer(computer, channel);
+  }
+
+  static TraceReplayer open(final Computer computer, final Path path) throws IOException {
+    return open(computer, FileChannel.open(path));
+  }
+
+  /**
+   * Replays one step.
+   *
+   * @return false if the trace has no more steps.
+   */
+  boolean advance() throws IOException {
+    fill();
+    if (buffer.hasRemaining() && buffer.get(buffer.position()) == KEYFRAME) {
+      readKeyframe(false);
+      fill();
+    }
+    if (!buffer.hasRemaining() || buffer.get(buffer.position()) == END) {
+      return false;
+    }
+    var tag = buffer.get();
+    var programCounter = nextProgramCounter;
+    if (tag == JUMP) {
+      programCounter += Varints.getSigned(buffer);
+    } else if (tag != STEP) {
+      throw corrupt(tag);
+    }
+    var opCode = (int) (computer.peek(programCounter) % 100);
+    nextProgramCounter = opCode == Instruction.HALT
+      ? Computer.PROGRAM_COUNTER_END
+      : programCounter + Instruction.length(opCode);
+    for (fill(); buffer.hasRemaining() && !startsStep(buffer.get(buffer.position())); fill()) {
+      replayEvent(buffer.get());
+    }
+    step++;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  long[] getInputs() {
+    return inputs.toArray();
+  }
+
+  long[] getOutputs() {
+    return outputs.toArray();
+  }
+
+  long getStep() {
+    return step;
+  }
+
+  /**
+   * Moves the computer to its state after the given number of steps, or after the last one if the trace is shorter.
+   * Going back restarts from the nearest keyframe read so far, or from the beginning of the trace, which needs a
+   * seekable channel.
+   *
+   * @return the computer, with its memory, program counter, relative base and instruction count replayed.
+   */
+  Computer seek(final long target) throws IOException {
+    if (target < step) {
+      checkArgument(channel instanceof SeekableByteChannel, "cannot seek back to %s on a stream", target);
+      computer.restore(start);
+      var nearest = keyframes.size() - 1;
+      while (nearest >= 0 && keyframes.get(nearest).step > target) {
+        nearest--;
+      }
+      if (nearest < 0) {
+        position(0);
+        readHeader();
+      } else {
+        // each keyframe only holds the pages written since the previous one
+        for (var keyframe = 0; keyframe <= nearest; keyframe++) {
+          position(keyframes.get(keyframe).offset);
+          readKeyframe(true);
+        }
+        inputs = prefix(inputs, keyframes.get(nearest).inputs);
+        outputs = prefix(outputs, keyframes.get(nearest).outputs);
+      }
+    }
+    while (step < target && advance()) {
+      // replays up to the target
+    }
+    computer.moveTo(programCounter(), base, startInstructionCount + step);
+    return computer;
+  }
+
+  private static IllegalStateException corrupt(final byte tag) {
+    return new IllegalStateException(format("Corrupt trace, unexpected event %d", tag));
+  }
+
+  private static LongRingBuffer prefix(final LongRingBuffer values, final long count) {
+    var all = values.toArray();
+    var result = new LongRingBuffer();
+    for (var index = 0; index < count; index++) {
+      result.accept(all[index]);
+    }
+    return result;
+  }
+
+  private static boolean startsStep(final byte tag) {
+    return tag == STEP || tag == JUMP || tag == END || tag == KEYFRAME;
+  }
+
+  private void fill() throws IOException {
+    if (buffer.remaining() >= MAX_EVENT_LENGTH || endOfChannel) {
+      return;
+    }
+    bufferStart += buffer.position();
+    buffer.compact();
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        endOfChannel = true;
+        break;
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * @return the program counter after the current step: the next step or the end marker says where execution went.
+   */
+  private long programCounter() throws IOException {
+    fill();
+    if (buffer.hasRemaining() && buffer.get(buffer.position()) == KEYFRAME) {
+      readKeyframe(false);
+      fill();
+    }
+    if (!buffer.hasRemaining() || buffer.get(buffer.position()) == STEP) {
+      return nextProgramCounter;
+    }
+    var next = buffer.duplicate();
+    next.get();
+    return nextProgramCounter + Varints.getSigned(next);
+  }
+
+  private void position(final long offset) throws IOException {
+    ((SeekableByteChannel) channel).position(offset);
+    buffer.clear().flip();
+    bufferStart = offset;
+    endOfChannel = false;
+    fill();
+  }
+
+  private void readHeader() throws IOException {
+    fill();
+    var magic = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : 0;
+    if (magic != MAGIC || !buffer.hasRemaining() || buffer.get() != VERSION) {
+      throw new IllegalStateException("Not an Intcode trace, or an unsupported version");
+    }
+    nextProgramCounter = Varints.getSigned(buffer);
+    base = Varints.getSigned(buffer);
+    startInstructionCount = Varints.get(buffer);
+    inputs = new LongRingBuffer();
+    lastWrite = 0;
+    outputs = new LongRingBuffer();
+    step = 0;
+  }
+
+  /**
+   * Reads the keyframe at the current position, indexing it if it is new. Applying it pokes its pages and cells and
+   * moves the registers to it; otherwise it is skipped.
+   */
+  private void readKeyframe(final boolean apply) throws IOException {
+    var offset = bufferStart + buffer.position();
+    buffer.get();
+    var keyframeStep = Varints.get(buffer);
+    var keyframeProgramCounter = Varints.getSigned(buffer);
+    fill();
+    var keyframeBase = Varints.getSigned(buffer);
+    var keyframeLastWrite = Varints.getSigned(buffer);
+    fill();
+    var keyframeInputs = Varints.get(buffer);
+    var keyframeOutputs = Varints.get(buffer);
+    if (keyframes.isEmpty() || keyframes.get(keyframes.size() - 1).step < keyframeStep) {
+      keyframes.add(new Keyframe(keyframeStep, offset, keyframeInputs, keyframeOutputs));
+    }
+    fill();
+    for (var pages = Varints.get(buffer); pages > 0; pages--) {
+      fill();
+      var address = Varints.get(buffer) << Memory.PAGE_BITS;
+      for (var end = address + Memory.PAGE_SIZE; address < end; address++) {
+        fill();
+        var value = Varints.getSigned(buffer);
+        if (apply) {
+          computer.poke(address, value);
+        }
+      }
+    }
+    fill();
+    for (var cells = Varints.get(buffer); cells > 0; cells--) {
+      fill();
+      var address = Varints.getSigned(buffer);
+      var value = Varints.getSigned(buffer);
+      if (apply) {
+        computer.poke(address, value);
+      }
+    }
+    if (apply) {
+      step = keyframeStep;
+      nextProgramCounter = keyframeProgramCounter;
+      base = keyframeBase;
+      lastWrite = keyframeLastWrite;
+    }
+  }
+
+  private void replayEvent(final byte tag) {
+    switch (tag) {
+      case WRITE -> {
+        lastWrite += Varints.getSigned(buffer);
+        computer.poke(lastWrite, Varints.getSigned(buffer));
+      }
+      case BASE -> base = Varints.getSigned(buffer);
+      case INPUT -> inputs.accept(Varints.getSigned(buffer));
+      case OUTPUT -> outputs.accept(Varints.getSigned(buffer));
+      default -> throw corrupt(tag);
+    }
+  }
+
+  static class Test {
+    private static final String QUINE = "109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99";
+    private static final String SELF_MODIFYING = "3,100,1101,10,20,8,1001,100,0,16,4,16,99,0,0,0,0";
+
+    @org.junit.jupiter.api.Test
+    void seek_matchesExecutionAtEveryStep() throws IOException {
+      var trace = record(QUINE);
+
+      try (var replayer = TraceReplayer.open(Computer.parse(QUINE), trace)) {
+        for (var step = 0; step <= 130; step += 13) {
+          var expected = Computer.parse(QUINE).withMode(Computer.ExecutionMode.INTERPRETED);
+          expected.run(step);
+
+          var actual = replayer.seek(step);
+
+          assertThat(actual.getProgramCounter()).isEqualTo(expected.getProgramCounter());
+          assertThat(actual.getBase()).isEqualTo(expected.getBase());
+          assertThat(actual.getInstructionCount()).isEqualTo(expected.getInstructionCount());
+          for (var address = 0; address < 102; address++) {
+            assertThat(actual.peek(address)).isEqualTo(expected.peek(address));
+          }
+          assertThat(replayer.getOutputs()).containsExactly(expected.getOutputs().stream().mapToLong(Long::longValue).toArray());
+        }
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void seek_toEnd_replaysWholeRun() throws IOException {
+      var path = Files.createTempFile("intcode", ".trace");
+      var computer = Computer.parse(SELF_MODIFYING);
+      var recorder = TraceRecorder.attach(computer, path);
+      try {
+        assertThat(computer.execute(5L)).containsExactly(35L);
+      } finally {
+        recorder.close();
+      }
+
+      try (var replayer = TraceReplayer.open(Computer.parse(SELF_MODIFYING), path)) {
+        var end = replayer.seek(Long.MAX_VALUE);
+        assertThat(end.isRunning()).isFalse();
+        assertThat(end.peek(16)).isEqualTo(35L);
+        assertThat(replayer.getInputs()).containsExactly(5L);
+        assertThat(replayer.getOutputs()).containsExactly(35L);
+
+        var rewound = replayer.seek(1);
+        assertThat(rewound.getProgramCounter()).isEqualTo(2L);
+        assertThat(rewound.peek(16)).isZero();
+        assertThat(replayer.getOutputs()).isEmpty();
+      } finally {
+        Files.delete(path);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void seek_back_startsFromTheNearestKeyframe() throws IOException {
+      var path = Files.createTempFile("intcode", ".trace");
+      var computer = Computer.parse(QUINE);
+      var recorder = TraceRecorder.attach(computer, path, 8);
+      try {
+        computer.execute();
+      } finally {
+        recorder.close();
+      }
+
+      try (var replayer = TraceReplayer.open(Computer.parse(QUINE), path)) {
+        replayer.seek(Long.MAX_VALUE);
+        for (var step = 81; step >= 0; step -= 3) {
+          var expected = Computer.parse(QUINE).withMode(Computer.ExecutionMode.INTERPRETED);
+          expected.run(step);
+
+          var actual = replayer.seek(step);
+
+          assertThat(replayer.getStep()).isEqualTo(step);
+          assertThat(actual.getProgramCounter()).isEqualTo(expected.getProgramCounter());
+          assertThat(actual.getBase()).isEqualTo(expected.getBase());
+          assertThat(actual.getInstructionCount()).isEqualTo(expected.getInstructionCount());
+          for (var address = 0; address < 102; address++) {
+            assertThat(actual.peek(address)).isEqualTo(expected.peek(address));
+          }
+          assertThat(replayer.getOutputs()).containsExactly(expected.getOutputs().stream().mapToLong(Long::longValue).toArray());
+        }
+      } finally {
+        Files.delete(path);
+      }
+    }
+
+    @org.junit.jupiter.api.Test
+    void record_pausedRun_endsAtTheInputInstruction() throws IOException {
+      var program = "1105,1,3,3,100,4,100,99";
+      var bytes = new ByteArrayOutputStream();
+      var computer = Computer.parse(program);
+      var recorder = TraceRecorder.attach(computer, Channels.newChannel(bytes));
+      try {
+        assertThat(computer.run()).isEqualTo(Computer.Status.AWAITING_INPUT);
+      } finally {
+        recorder.close();
+      }
+
+      try (var replayer = TraceReplayer.open(Computer.parse(program), Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())))) {
+        assertThat(replayer.seek(Long.MAX_VALUE).getProgramCounter()).isEqualTo(3L);
+        assertThat(replayer.getStep()).isEqualTo(1L);
+      }
+    }
+
+    private static ReadableByteChannel record(final String program) throws IOException {
+      var bytes = new ByteArrayOutputStream();
+      var computer = Computer.parse(program);
+      var recorder = TraceRecorder.attach(computer, Channels.newChannel(bytes));
+      try {
+        computer.execute();
+      } finally {
+        recorder.close();
+      }
+      return Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package adventofcode.y2019;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 variable-length integers with zigzag encoding, so small values of either sign take a single byte.
+ */
+final class Varints {
+  static final int MAX_LENGTH = 10;
+
+  private Varints() {
+  }
+
+  static long get(final ByteBuffer buffer) {
+    var result = 0L;
+    for (var shift = 0; shift < 64; shift += 7) {
+      var current = buffer.get();
+      result |= (long) (current & 0x7F) << shift;
+      if (current >= 0) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("Malformed varint at " + (buffer.position() - 1));
+  }
+
+  static long getSigned(final ByteBuffer buffer) {
+    var encoded = get(buffer);
+    return (encoded >>> 1) ^ -(encoded & 1);
+  }
+
+  static void put(final ByteBuffer buffer, final long value) {
+    var remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      buffer.put((byte) (remaining & 0x7F | 0x80));
+      remaining >>>= 7;
+    }
+    buffer.put((byte) remaining);
+  }
+
+  static void putSigned(final ByteBuffer buffer, final long value) {
+    put(buffer, (value << 1) ^ (value >> 63));
+  }
+}